@@ -0,0 +1,190 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package ssmv;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Computes anaglyph images directly on the pixel arrays of the source images.
+ * The destination image is reused if it fits.
+ */
+public class AnaglyphEngine {
+	
+	private static final int FIXED_SHIFT = 14;
+	
+	/**
+	 * A pair of 3x3 matrices (row major, rows are the output channels r,g,b) that are
+	 * applied to the left and the right image and added.
+	 * The matrices are stored as lookup tables of fixed point products for every
+	 * coefficient and input value.
+	 */
+	public static class Matrix {
+		private final int [] lut = new int [18 * 256];
+		
+		public Matrix(float [] left, float [] right) {
+			if(left.length != 9 || right.length != 9)
+				throw new IllegalArgumentException("Matrices need 9 coefficients!");
+			
+			for(int c=0; c<18; c++) {
+				float coeff = (c < 9) ? left[c] : right[c - 9];
+				for(int v=0; v<256; v++) {
+					lut[c * 256 + v] = Math.round(coeff * v * (1 << FIXED_SHIFT));
+				}
+			}
+			
+			// rounding for the final shift is folded into the first table of each channel
+			for(int ch=0; ch<3; ch++) {
+				for(int v=0; v<256; v++) {
+					lut[(ch * 3) * 256 + v] += 1 << (FIXED_SHIFT - 1);
+				}
+			}
+		}
+	}
+	
+	// matrices for red (left) / cyan (right) glasses
+	public static final Matrix GRAY = new Matrix(
+			new float [] { 0.299f, 0.587f, 0.114f, 0, 0, 0, 0, 0, 0 },
+			new float [] { 0, 0, 0, 0.299f, 0.587f, 0.114f, 0.299f, 0.587f, 0.114f });
+	
+	public static final Matrix HALF_COLOR = new Matrix(
+			new float [] { 0.299f, 0.587f, 0.114f, 0, 0, 0, 0, 0, 0 },
+			new float [] { 0, 0, 0, 0, 1, 0, 0, 0, 1 });
+	
+	public static final Matrix OPTIMIZED = new Matrix(
+			new float [] { 0, 0.7f, 0.3f, 0, 0, 0, 0, 0, 0 },
+			new float [] { 0, 0, 0, 0, 1, 0, 0, 0, 1 });
+	
+	// Eric Dubois, least squares projection for red/cyan glasses
+	public static final Matrix DUBOIS = new Matrix(
+			new float [] { 0.456f, 0.500f, 0.176f, -0.040f, -0.038f, -0.016f, -0.015f, -0.021f, -0.005f },
+			new float [] { -0.043f, -0.088f, -0.002f, 0.378f, 0.734f, -0.018f, -0.072f, -0.113f, 1.226f });
+	
+	private AnaglyphEngine() {
+	}
+	
+	/**
+	 * @return dst if it can hold the result, otherwise a new image
+	 */
+	public static BufferedImage prepareDestination(BufferedImage left, BufferedImage dst) {
+		int w = left.getWidth();
+		int h = left.getHeight();
+		boolean withAlpha = SSMV.hasTransparency(left);
+		
+		if(dst == null || !IntRaster.isIntImage(dst) || dst.getWidth() != w || dst.getHeight() != h || SSMV.hasTransparency(dst) != withAlpha)
+			dst = IntRaster.createIntImage(w, h, withAlpha);
+		
+		return dst;
+	}
+	
+	/**
+	 * Combines the channels in leftMask from the left image with the remaining channels of the right image.
+	 */
+	public static BufferedImage createMaskAnaglyph(BufferedImage left, BufferedImage right, int leftMask, BufferedImage dst) {
+		dst = prepareDestination(left, dst);
+		
+		final IntRaster l = IntRaster.of(IntRaster.toIntImage(left));
+		final IntRaster r = IntRaster.of(IntRaster.toIntImage(right));
+		final IntRaster d = IntRaster.of(dst);
+		
+		final int lmask = ((leftMask & 0x00FFFFFF) | 0xFF000000);
+		final int rmask = ((~leftMask) & 0x00FFFFFF);
+		
+		final int w = d.width;
+		
+		RowBands.run(w, d.height, new RowBands.Rows() {
+			public void process(int y0, int y1) {
+				int [] ld = l.data;
+				int [] rd = r.data;
+				int [] dd = d.data;
+				
+				for(int y=y0; y<y1; y++) {
+					int li = l.index(0, y);
+					int ri = r.index(0, y);
+					int di = d.index(0, y);
+					
+					for(int x=0; x<w; x++) {
+						dd[di + x] = (ld[li + x] & lmask) | (rd[ri + x] & rmask);
+					}
+				}
+			}
+		});
+		
+		return dst;
+	}
+	
+	private static int clamp(int v) {
+		v >>= FIXED_SHIFT;
+		return v < 0 ? 0 : (v > 255 ? 255 : v);
+	}
+	
+	/**
+	 * Applies the matrices to the left and right image and adds the results.
+	 */
+	public static BufferedImage createMatrixAnaglyph(BufferedImage left, BufferedImage right, Matrix matrix, BufferedImage dst) {
+		dst = prepareDestination(left, dst);
+		
+		final IntRaster l = IntRaster.of(IntRaster.toIntImage(left));
+		final IntRaster r = IntRaster.of(IntRaster.toIntImage(right));
+		final IntRaster d = IntRaster.of(dst);
+		final int [] lut = matrix.lut;
+		
+		final int w = d.width;
+		
+		RowBands.run(w, d.height, new RowBands.Rows() {
+			public void process(int y0, int y1) {
+				int [] ld = l.data;
+				int [] rd = r.data;
+				int [] dd = d.data;
+				
+				for(int y=y0; y<y1; y++) {
+					int li = l.index(0, y);
+					int ri = r.index(0, y);
+					int di = d.index(0, y);
+					
+					for(int x=0; x<w; x++) {
+						int lp = ld[li + x];
+						int rp = rd[ri + x];
+						
+						int lr = (lp >> 16) & 0xFF;
+						int lg = (lp >> 8) & 0xFF;
+						int lb = lp & 0xFF;
+						int rr = ((rp >> 16) & 0xFF) + 9 * 256;
+						int rg = ((rp >> 8) & 0xFF) + 10 * 256;
+						int rb = (rp & 0xFF) + 11 * 256;
+						
+						int or = lut[lr] + lut[256 + lg] + lut[512 + lb]
+								+ lut[rr] + lut[rg] + lut[rb];
+						int og = lut[768 + lr] + lut[1024 + lg] + lut[1280 + lb]
+								+ lut[rr + 768] + lut[rg + 768] + lut[rb + 768];
+						int ob = lut[1536 + lr] + lut[1792 + lg] + lut[2048 + lb]
+								+ lut[rr + 1536] + lut[rg + 1536] + lut[rb + 1536];
+						
+						dd[di + x] = (lp & 0xFF000000) | (clamp(or) << 16) | (clamp(og) << 8) | clamp(ob);
+					}
+				}
+			}
+		});
+		
+		return dst;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+
+/**
+ * An opaque RGB image of which only one band of rows is in memory at a time.
+ * The bands are created on demand when the pixels are read, so an image that is
+ * read from top to bottom, as the ImageIO writers do, is produced band by band and
+ * never exists as a whole. Reading rows out of order creates their band again.
+ */
+public class BandedImage {
+	
+	/**
+	 * Creates the rows of the image
+	 */
+	public static interface Rows {
+		/**
+		 * @return an image with the rows y to y+h-1, the alpha channel is ignored
+		 */
+		public BufferedImage create(int y, int h) throws IOException;
+	}
+	
+	/**
+	 * Thrown out of the pixel access if a band could not be created
+	 */
+	public static class BandException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		
+		public BandException(IOException cause) {
+			super(cause.getMessage(), cause);
+		}
+	}
+	
+	// pixel memory of a band
+	private static final long bandBytes = Math.max(4L << 20, Math.min(Runtime.getRuntime().maxMemory() / 32, 64L << 20));
+	
+	private static class BandBuffer extends DataBuffer {
+		private final int width;
+		private final int height;
+		private final int bandHeight;
+		private final Rows rows;
+		
+		private final int [] band;
+		private int bandY = -1;
+		private int bandRows = 0;
+		
+		public BandBuffer(int width, int height, int bandHeight, Rows rows) {
+			super(TYPE_INT, width * height);
+			this.width = width;
+			this.height = height;
+			this.bandHeight = bandHeight;
+			this.rows = rows;
+			this.band = new int [width * bandHeight];
+		}
+		
+		private void load(int y) {
+			int y0 = y - y % bandHeight;
+			int h = Math.min(bandHeight, height - y0);
+			
+			BufferedImage bi;
+			try {
+				bi = IntRaster.toIntImage(rows.create(y0, h));
+			} catch (IOException e) {
+				throw new BandException(e);
+			}
+			
+			if(bi.getWidth() != width || bi.getHeight() != h)
+				throw new IllegalStateException("Band has the wrong size!");
+			
+			IntRaster r = IntRaster.of(bi);
+			for(int i=0; i<h; i++)
+				System.arraycopy(r.data, r.index(0, i), band, i * width, width);
+			
+			bandY = y0;
+			bandRows = h;
+		}
+		
+		@Override
+		public int getElem(int bank, int i) {
+			int y = i / width;
+			if(y < bandY || y >= bandY + bandRows)
+				load(y);
+			return band[i - bandY * width];
+		}
+		
+		@Override
+		public void setElem(int bank, int i, int val) {
+			throw new UnsupportedOperationException("Banded images are read-only!");
+		}
+	}
+	
+	private BandedImage() {
+	}
+	
+	/**
+	 * @return the number of rows of a band for images of the given width
+	 */
+	public static int getBandHeight(int width) {
+		return (int)Math.max(16, Math.min(Integer.MAX_VALUE, bandBytes / 4 / Math.max(1, width)));
+	}
+	
+	/**
+	 * @return an image that creates its rows when they are read
+	 */
+	public static BufferedImage create(int width, int height, Rows rows) throws IOException {
+		if((long)width * height > Integer.MAX_VALUE)
+			throw new IOException("The image is too large to be saved!");
+		
+		int bandHeight = Math.min(height, getBandHeight(width));
+		
+		int [] masks = { 0x00FF0000, 0x0000FF00, 0x000000FF };
+		SinglePixelPackedSampleModel sm = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height, masks);
+		DirectColorModel cm = new DirectColorModel(24, masks[0], masks[1], masks[2]);
+		
+		return new BufferedImage(cm, Raster.createWritableRaster(sm, new BandBuffer(width, height, bandHeight, rows), null), false, null);
+	}
+}
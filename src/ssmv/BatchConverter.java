@@ -0,0 +1,466 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Command line converter that writes anaglyph, side-by-side or single eye
+ * images for a number of stereo files. Works without a display.
+ */
+public class BatchConverter {
+	
+	public static enum Output { Anaglyph, Cross, Parallel, Left, Right, Rows, Columns, Checkerboard };
+	
+	private static final String usage =
+			"Usage: java -jar SSMV.jar --batch [options] <file|directory>...\n" +
+			"\n" +
+			"Options:\n" +
+			"  -o <dir>       output directory (default: next to the input file)\n" +
+			"  -f <format>    output format, e.g. jpg, png (default: jpg)\n" +
+			"  -m <outputs>   comma separated list of anaglyph, cross, parallel, left, right,\n" +
+			"                 rows, columns, checkerboard (default: anaglyph)\n" +
+			"  -a <mask>      anaglyph mask: red, green or blue (default: red)\n" +
+			"  -M <method>    anaglyph method: mask, gray, halfcolor, optimized, dubois\n" +
+			"                 (default: mask)\n" +
+			"  -t <threads>   number of files converted at the same time\n" +
+			"  -L <layout>    layout of side-by-side files: sidebysiderl, sidebysidelr,\n" +
+			"                 halfsidebysiderl, halfsidebysidelr, overunderlr, overunderrl,\n" +
+			"                 halfoverunderlr, halfoverunderrl (default: sidebysiderl)\n" +
+			"  -s             swap left and right image\n" +
+			"  -A             correct vertical offset and rotation of MPO files\n" +
+			"  -r             include sub-directories\n";
+	
+	protected File outputDir = null;
+	protected String format = "jpg";
+	protected EnumSet<Output> outputs = EnumSet.of(Output.Anaglyph);
+	protected int maskIndex = 0;
+	protected SSMV.AnaglyphMethod method = SSMV.AnaglyphMethod.Mask;
+	protected int threads = Runtime.getRuntime().availableProcessors();
+	protected SideBySideLayout layout = SideBySideLayout.DEFAULT;
+	protected boolean swap = false;
+	protected boolean align = false;
+	protected boolean recursive = false;
+	
+	protected final List<File> inputs = new ArrayList<File>();
+	
+	protected final PrintStream out;
+	protected final PrintStream err;
+	
+	// limits the pixel memory of the conversions running at the same time (in KiB),
+	// so more threads than fit into the heap wait instead of running out of memory
+	private final int memoryPermits = (int)Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() * 3 / 4 / 1024);
+	private final Semaphore memory = new Semaphore(memoryPermits, true);
+	
+	public BatchConverter(PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+	}
+	
+	static class Result {
+		final File file;
+		final long bytes;
+		final long pixels;
+		final Throwable error;
+		
+		public Result(File file, long bytes, long pixels, Throwable error) {
+			this.file = file;
+			this.bytes = bytes;
+			this.pixels = pixels;
+			this.error = error;
+		}
+	}
+	
+	/**
+	 * Runs the converter with the given command line.
+	 * 
+	 * @return the exit code, 0 if all files were converted
+	 */
+	public static int run(String... args) {
+		BatchConverter bc = new BatchConverter(System.out, System.err);
+		
+		try {
+			bc.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println();
+			System.err.print(bc.getUsage());
+			return 2;
+		}
+		
+		return bc.convertAll();
+	}
+	
+	protected String getUsage() {
+		return usage;
+	}
+	
+	protected static String next(String [] args, int i, String option) {
+		if(i >= args.length)
+			throw new IllegalArgumentException("Missing value for " + option);
+		return args[i];
+	}
+	
+	public void parseArguments(String... args) {
+		for(int i=0; i<args.length; i++) {
+			String a = args[i];
+			
+			if(a.startsWith("-")) {
+				int n = parseOption(args, i);
+				if(n < 0)
+					throw new IllegalArgumentException("Unknown option: " + a);
+				i = n;
+			} else {
+				inputs.add(new File(a));
+			}
+		}
+		
+		if(inputs.isEmpty())
+			throw new IllegalArgumentException("No input files given");
+	}
+	
+	/**
+	 * Parses the option at args[i].
+	 * 
+	 * @return the index of the last argument used by the option or -1 if the option is unknown
+	 */
+	protected int parseOption(String [] args, int i) {
+		String a = args[i];
+		
+		if(a.equals("-o")) {
+			outputDir = new File(next(args, ++i, a));
+		} else if(a.equals("-f")) {
+			format = next(args, ++i, a).toLowerCase(Locale.ENGLISH);
+			if(!SaveService.canWrite(format))
+				throw new IllegalArgumentException("Unsupported output format: " + format);
+		} else if(a.equals("-m")) {
+			outputs = EnumSet.noneOf(Output.class);
+			for(String o : next(args, ++i, a).split(","))
+				outputs.add(parseOutput(o.trim()));
+		} else if(a.equals("-a")) {
+			maskIndex = parseMask(next(args, ++i, a));
+		} else if(a.equals("-M")) {
+			method = parseMethod(next(args, ++i, a));
+		} else if(a.equals("-t")) {
+			try {
+				threads = Integer.parseInt(next(args, ++i, a));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid number of threads: " + args[i]);
+			}
+			if(threads < 1)
+				throw new IllegalArgumentException("Invalid number of threads: " + args[i]);
+		} else if(a.equals("-L")) {
+			layout = SideBySideLayout.forName(next(args, ++i, a));
+			if(layout == null)
+				throw new IllegalArgumentException("Unknown side-by-side layout: " + args[i]);
+		} else if(a.equals("-s")) {
+			swap = true;
+		} else if(a.equals("-A")) {
+			align = true;
+		} else if(a.equals("-r")) {
+			recursive = true;
+		} else {
+			return -1;
+		}
+		
+		return i;
+	}
+	
+	private static Output parseOutput(String s) {
+		for(Output o : Output.values()) {
+			if(o.name().equalsIgnoreCase(s))
+				return o;
+		}
+		throw new IllegalArgumentException("Unknown output: " + s);
+	}
+	
+	private static int parseMask(String s) {
+		for(int i=0; i<SSMV.anaglyphMaskNames.length; i++) {
+			String name = SSMV.anaglyphMaskNames[i];
+			if(name.equalsIgnoreCase(s) || name.substring(0, name.indexOf('/')).equalsIgnoreCase(s))
+				return i;
+		}
+		throw new IllegalArgumentException("Unknown anaglyph mask: " + s);
+	}
+	
+	private static SSMV.AnaglyphMethod parseMethod(String s) {
+		for(SSMV.AnaglyphMethod am : SSMV.AnaglyphMethod.values()) {
+			if(am.name().equalsIgnoreCase(s))
+				return am;
+		}
+		throw new IllegalArgumentException("Unknown anaglyph method: " + s);
+	}
+	
+	static boolean isStereoFile(File f) {
+		String ext = SSMV.getExt(f.getName()).toLowerCase(Locale.ENGLISH);
+		return ext.equals("mpo") || ext.equals("jps");
+	}
+	
+	/**
+	 * Directories contribute their MPO and JPS files, files given directly are always converted.
+	 */
+	private void collect(File f, List<File> files, boolean explicit) {
+		if(f.isDirectory()) {
+			File [] children = f.listFiles();
+			if(children == null)
+				return;
+			Arrays.sort(children);
+			for(File c : children) {
+				if(c.isDirectory()) {
+					if(recursive)
+						collect(c, files, false);
+				} else if(isStereoFile(c)) {
+					files.add(c);
+				}
+			}
+		} else if(explicit || isStereoFile(f)) {
+			files.add(f);
+		}
+	}
+	
+	public int convertAll() {
+		List<File> files = new ArrayList<File>();
+		for(File f : inputs)
+			collect(f, files, true);
+		
+		if(files.isEmpty()) {
+			err.println("No MPO or JPS files found.");
+			return 1;
+		}
+		
+		if(outputDir != null && !outputDir.isDirectory() && !outputDir.mkdirs()) {
+			err.println("Can not create output directory " + outputDir);
+			return 1;
+		}
+		
+		ExecutorService workers = Executors.newFixedThreadPool(Math.min(threads, files.size()), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SSMV-Batch-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		
+		CompletionService<Result> results = new ExecutorCompletionService<Result>(workers);
+		
+		long start = System.nanoTime();
+		
+		for(final File f : files) {
+			results.submit(new Callable<Result>() {
+				public Result call() {
+					return convert(f);
+				}
+			});
+		}
+		
+		int failed = 0;
+		long bytes = 0;
+		long pixels = 0;
+		
+		try {
+			for(int i=0; i<files.size(); i++) {
+				Result r = results.take().get();
+				
+				if(r.error != null) {
+					failed++;
+					err.println("[" + (i+1) + "/" + files.size() + "] FAILED " + r.file + ": " + describe(r.error));
+				} else {
+					bytes += r.bytes;
+					pixels += r.pixels;
+					out.println("[" + (i+1) + "/" + files.size() + "] " + r.file);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 1;
+		} catch (ExecutionException e) {
+			// convert reports its errors in the result
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			workers.shutdownNow();
+		}
+		
+		double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+		int converted = files.size() - failed;
+		
+		out.println(String.format(Locale.ENGLISH, "%d of %d files converted in %.1f s (%d failed) using %d threads",
+				converted, files.size(), seconds, failed, Math.min(threads, files.size())));
+		out.println(String.format(Locale.ENGLISH, "%.2f files/s, %.1f MB/s read, %.1f megapixels/s",
+				converted / seconds, bytes / seconds / (1024.0 * 1024.0), pixels / seconds / 1e6));
+		
+		return failed == 0 ? 0 : 1;
+	}
+	
+	static String describe(Throwable t) {
+		if(t instanceof OutOfMemoryError)
+			return "not enough memory";
+		if(t.getMessage() != null)
+			return t.getMessage();
+		return t.toString();
+	}
+	
+	/**
+	 * @return the estimated memory for converting the file in KiB, a file
+	 * that needs more than there is runs alone
+	 */
+	private int estimateMemory(File f) {
+		long pixels;
+		try {
+			Dimension d = StereoLoader.readSize(StereoLoader.map(f));
+			pixels = (long)d.width * d.height;
+		} catch (IOException e) {
+			return 1;
+		}
+		
+		boolean mpo = SSMV.isMPOFile(f);
+		
+		// both eyes, the largest output is twice the size of one eye, the aligned copy of one eye
+		long bytes = pixels * 4L * (mpo ? (align ? 5 : 4) : 3);
+		return (int)Math.max(1, Math.min(memoryPermits, bytes / 1024));
+	}
+	
+	/**
+	 * Converts the file once there is enough memory for it
+	 */
+	Result convert(File f) {
+		int permits = estimateMemory(f);
+		memory.acquireUninterruptibly(permits);
+		try {
+			return convertNow(f);
+		} finally {
+			memory.release(permits);
+		}
+	}
+	
+	private Result convertNow(File f) {
+		try {
+			boolean mpo = SSMV.isMPOFile(f);
+			StereoPair pair = mpo ? StereoLoader.loadMPO(f) : StereoLoader.loadSideBySide(f, null, null, layout);
+			
+			BufferedImage first = pair.getLeft();
+			BufferedImage second = pair.getRight();
+			if(align && mpo)
+				second = StereoAlignment.apply(StereoAligner.estimate(first, second), second);
+			
+			BufferedImage left = swap ? second : first;
+			BufferedImage right = swap ? first : second;
+			
+			for(Output o : outputs) {
+				BufferedImage bi;
+				switch(o) {
+				case Anaglyph:
+					bi = SSMV.createAnaglyphImage(left, right, method, maskIndex, null);
+					break;
+				case Cross:
+					bi = sideBySide(right, left);
+					break;
+				case Parallel:
+					bi = sideBySide(left, right);
+					break;
+				case Left:
+					bi = left;
+					break;
+				case Rows:
+					bi = InterleaveEngine.interleave(left, right, InterleaveEngine.Pattern.Rows, 0, 0, null);
+					break;
+				case Columns:
+					bi = InterleaveEngine.interleave(left, right, InterleaveEngine.Pattern.Columns, 0, 0, null);
+					break;
+				case Checkerboard:
+					bi = InterleaveEngine.interleave(left, right, InterleaveEngine.Pattern.Checkerboard, 0, 0, null);
+					break;
+				default:
+					bi = right;
+				}
+				
+				write(bi, outputFile(f, o));
+			}
+			
+			return new Result(f, f.length(), 2L * pair.getWidth() * pair.getHeight(), null);
+		} catch (Exception e) {
+			return new Result(f, 0, 0, e);
+		} catch (OutOfMemoryError e) {
+			return new Result(f, 0, 0, e);
+		}
+	}
+	
+	private static BufferedImage sideBySide(BufferedImage first, BufferedImage second) {
+		int w = first.getWidth();
+		int h = first.getHeight();
+		
+		BufferedImage bi = IntRaster.createIntImage(w * 2, h, SSMV.hasTransparency(first));
+		IntRaster d = IntRaster.of(bi);
+		IntRaster a = IntRaster.of(IntRaster.toIntImage(first));
+		IntRaster b = IntRaster.of(IntRaster.toIntImage(second));
+		
+		for(int y=0; y<h; y++) {
+			System.arraycopy(a.data, a.index(0, y), d.data, d.index(0, y), w);
+			System.arraycopy(b.data, b.index(0, y), d.data, d.index(w, y), w);
+		}
+		
+		return bi;
+	}
+	
+	private File outputFile(File f, Output o) {
+		String name = f.getName();
+		int idx = name.lastIndexOf('.');
+		if(idx > 0)
+			name = name.substring(0, idx);
+		
+		name = name + "_" + o.name().toLowerCase(Locale.ENGLISH) + "." + format;
+		
+		File dir = outputDir != null ? outputDir : f.getAbsoluteFile().getParentFile();
+		return new File(dir, name);
+	}
+	
+	private void write(final BufferedImage bi, File f) throws IOException {
+		// a half written file is never left behind, the watch mode relies on that
+		SaveService.writeAtomically(f, new SaveService.Writer() {
+			public void write(File tmp, SaveService.Progress progress) throws IOException {
+				SaveService.writeImage(bi, tmp, format, SaveService.DEFAULT_SETTINGS, null);
+			}
+		}, null);
+	}
+}
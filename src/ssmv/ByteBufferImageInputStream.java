@@ -0,0 +1,84 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package ssmv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * An ImageInputStream that reads directly from a (memory mapped) ByteBuffer
+ * without copying the data to the heap first.
+ */
+public class ByteBufferImageInputStream extends ImageInputStreamImpl {
+	
+	private final ByteBuffer buffer;
+	
+	public ByteBufferImageInputStream(ByteBuffer buffer) {
+		this.buffer = buffer.slice();
+	}
+	
+	@Override
+	public int read() throws IOException {
+		checkClosed();
+		bitOffset = 0;
+		
+		if(streamPos >= buffer.limit())
+			return -1;
+		
+		return buffer.get((int)streamPos++) & 0xFF;
+	}
+	
+	@Override
+	public int read(byte [] b, int off, int len) throws IOException {
+		checkClosed();
+		
+		if(off < 0 || len < 0 || off + len > b.length)
+			throw new IndexOutOfBoundsException();
+		
+		bitOffset = 0;
+		
+		if(len == 0)
+			return 0;
+		
+		long remaining = buffer.limit() - streamPos;
+		if(remaining <= 0)
+			return -1;
+		
+		int n = (int)Math.min(len, remaining);
+		
+		ByteBuffer src = buffer.duplicate();
+		src.position((int)streamPos);
+		src.get(b, off, n);
+		
+		streamPos += n;
+		
+		return n;
+	}
+	
+	@Override
+	public long length() {
+		return buffer.limit();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Screen copies of the few images that are currently displayed, so repaints
+ * do not convert pixel formats. Only to be used on the EDT.
+ */
+public class DisplayCache {
+	
+	// both eyes and the anaglyph
+	private static final int MAX_IMAGES = 4;
+	
+	private final LinkedList<DisplayImage> images = new LinkedList<DisplayImage>();
+	
+	/**
+	 * @return the screen copy of the image, created if necessary
+	 */
+	public DisplayImage get(BufferedImage source, GraphicsConfiguration gc) {
+		Iterator<DisplayImage> i = images.iterator();
+		while(i.hasNext()) {
+			DisplayImage di = i.next();
+			if(di.isFor(source, gc)) {
+				i.remove();
+				images.addFirst(di);
+				return di;
+			}
+		}
+		
+		DisplayImage di = new DisplayImage(source, gc);
+		di.validate();
+		images.addFirst(di);
+		
+		while(images.size() > MAX_IMAGES)
+			images.removeLast().flush();
+		
+		return di;
+	}
+	
+	public void draw(Graphics2D g, BufferedImage source, GraphicsConfiguration gc, int x, int y) {
+		get(source, gc).draw(g, x, y);
+	}
+	
+	/**
+	 * Drops the copy of an image whose pixels have changed
+	 */
+	public void invalidate(BufferedImage source) {
+		Iterator<DisplayImage> i = images.iterator();
+		while(i.hasNext()) {
+			DisplayImage di = i.next();
+			if(di.getSource() == source) {
+				di.flush();
+				i.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Drops the copies of all images except the given ones
+	 */
+	public void retain(BufferedImage... sources) {
+		Iterator<DisplayImage> i = images.iterator();
+		while(i.hasNext()) {
+			DisplayImage di = i.next();
+			boolean keep = false;
+			for(BufferedImage source : sources)
+				keep |= di.getSource() == source;
+			if(!keep) {
+				di.flush();
+				i.remove();
+			}
+		}
+	}
+	
+	public void clear() {
+		for(DisplayImage di : images)
+			di.flush();
+		images.clear();
+	}
+}
@@ -0,0 +1,147 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+/**
+ * A copy of an image in the pixel format of the screen, kept in video memory
+ * if possible. The copy is made again whenever its contents are lost. Without
+ * video memory a compatible image in the same format is used.
+ */
+public class DisplayImage {
+	
+	private final BufferedImage source;
+	private final GraphicsConfiguration gc;
+	
+	private VolatileImage image = null;
+	private BufferedImage compatible = null;
+	private boolean unavailable = false;
+	
+	/**
+	 * @param gc configuration of the component the image is drawn to, may be null
+	 */
+	public DisplayImage(BufferedImage source, GraphicsConfiguration gc) {
+		this.source = source;
+		this.gc = gc;
+	}
+	
+	public BufferedImage getSource() {
+		return source;
+	}
+	
+	/**
+	 * @return true if this is the display copy of the source for the given configuration
+	 */
+	public boolean isFor(BufferedImage source, GraphicsConfiguration gc) {
+		return this.source == source && this.gc == gc;
+	}
+	
+	private void copySource(Image dst) {
+		Graphics2D g = (Graphics2D)dst.getGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.drawImage(source, 0, 0, null);
+		g.dispose();
+	}
+	
+	/**
+	 * Makes sure the copy exists and is up to date
+	 * 
+	 * @return false if there is no copy and the source has to be drawn instead
+	 */
+	public boolean validate() {
+		if(gc == null || unavailable)
+			return false;
+		
+		if(image == null) {
+			try {
+				image = gc.createCompatibleVolatileImage(source.getWidth(), source.getHeight(), source.getTransparency());
+			} catch (OutOfMemoryError e) {
+				image = null;
+			}
+			if(image == null) {
+				unavailable = true;
+				createCompatible();
+				return false;
+			}
+			copySource(image);
+		}
+		
+		switch(image.validate(gc)) {
+		case VolatileImage.IMAGE_INCOMPATIBLE:
+			image.flush();
+			image = null;
+			return validate();
+		case VolatileImage.IMAGE_RESTORED:
+			copySource(image);
+			break;
+		}
+		
+		return true;
+	}
+	
+	private void createCompatible() {
+		// already in the screen format
+		if(source.getColorModel().equals(gc.getColorModel(source.getTransparency())))
+			return;
+		
+		try {
+			compatible = gc.createCompatibleImage(source.getWidth(), source.getHeight(), source.getTransparency());
+			copySource(compatible);
+		} catch (OutOfMemoryError e) {
+			compatible = null;
+		}
+	}
+	
+	public void draw(Graphics2D g, int x, int y) {
+		// the contents can be lost again while drawing
+		for(int attempt=0; attempt<3; attempt++) {
+			if(!validate())
+				break;
+			
+			g.drawImage(image, x, y, null);
+			
+			if(!image.contentsLost())
+				return;
+		}
+		
+		g.drawImage(compatible != null ? compatible : source, x, y, null);
+	}
+	
+	/**
+	 * Releases the video memory
+	 */
+	public void flush() {
+		if(image != null) {
+			image.flush();
+			image = null;
+		}
+		compatible = null;
+	}
+}
@@ -0,0 +1,219 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
+import javax.swing.ImageIcon;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+import javax.swing.ScrollPaneConstants;
+import javax.swing.SwingConstants;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+/**
+ * Vertical strip of thumbnails of the files in a directory.
+ * Thumbnails are only loaded for the cells that are painted.
+ */
+public class FilmStrip extends JScrollPane {
+	private static final long serialVersionUID = 1L;
+	
+	public static interface Listener {
+		public void fileSelected(File f);
+	}
+	
+	// thumbnails kept in memory
+	private static final int MAX_ICONS = 512;
+	
+	private final Thumbnails thumbnails;
+	private final Listener listener;
+	
+	private final DefaultListModel<File> model = new DefaultListModel<File>();
+	private final JList<File> list = new JList<File>(model);
+	
+	private File directory = null;
+	private boolean adjusting = false;
+	
+	// only accessed on the EDT
+	private final Map<File, ImageIcon> icons = new LinkedHashMap<File, ImageIcon>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, ImageIcon> eldest) {
+			return size() > MAX_ICONS;
+		}
+	};
+	private final Set<File> requested = new HashSet<File>();
+	
+	// requests for a previous directory are skipped
+	private final AtomicInteger generation = new AtomicInteger();
+	
+	private final ExecutorService loader = Executors.newFixedThreadPool(2, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SSMV-Thumbnails-" + count.incrementAndGet());
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}
+	});
+	
+	private final ImageIcon emptyIcon;
+	
+	public FilmStrip(Thumbnails thumbnails, Listener listener) {
+		this.thumbnails = thumbnails;
+		this.listener = listener;
+		
+		int size = thumbnails.getSize();
+		emptyIcon = new ImageIcon(new BufferedImage(size, size * 3 / 4, BufferedImage.TYPE_INT_ARGB));
+		
+		list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		// fixed cell sizes, the list never has to measure all files
+		list.setFixedCellWidth(size + 16);
+		list.setFixedCellHeight(size + 24);
+		list.setCellRenderer(new DefaultListCellRenderer() {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+				super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+				
+				File f = (File)value;
+				setText(f.getName());
+				setIcon(getThumbnail(f));
+				setHorizontalAlignment(SwingConstants.CENTER);
+				setHorizontalTextPosition(SwingConstants.CENTER);
+				setVerticalTextPosition(SwingConstants.BOTTOM);
+				return this;
+			}
+		});
+		list.addListSelectionListener(new ListSelectionListener() {
+			public void valueChanged(ListSelectionEvent e) {
+				if(e.getValueIsAdjusting() || adjusting)
+					return;
+				
+				File f = list.getSelectedValue();
+				if(f != null)
+					FilmStrip.this.listener.fileSelected(f);
+			}
+		});
+		
+		setViewportView(list);
+		setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+		setPreferredSize(new Dimension(size + 16 + getVerticalScrollBar().getPreferredSize().width + 4, size * 4));
+	}
+	
+	/**
+	 * Shows the files of the directory and selects the current one. Does nothing
+	 * but change the selection if the directory is already shown.
+	 */
+	public void show(File dir, List<File> files, File current) {
+		adjusting = true;
+		try {
+			if(!dir.equals(directory) || files.size() != model.getSize()) {
+				directory = dir;
+				generation.incrementAndGet();
+				requested.clear();
+				
+				model.clear();
+				for(File f : files)
+					model.addElement(f);
+			}
+			
+			int index = files.indexOf(current);
+			if(index >= 0) {
+				list.setSelectedIndex(index);
+				list.ensureIndexIsVisible(index);
+			} else {
+				list.clearSelection();
+			}
+		} finally {
+			adjusting = false;
+		}
+	}
+	
+	/**
+	 * @return the thumbnail if it is loaded, otherwise a placeholder and the thumbnail is requested
+	 */
+	private ImageIcon getThumbnail(final File f) {
+		ImageIcon icon = icons.get(f);
+		if(icon != null)
+			return icon;
+		
+		if(requested.add(f)) {
+			final int gen = generation.get();
+			loader.execute(new Runnable() {
+				public void run() {
+					if(gen != generation.get())
+						return;
+					
+					BufferedImage bi = null;
+					try {
+						bi = thumbnails.get(f);
+					} catch (IOException e) {
+					} catch (RuntimeException e) {
+						// unreadable files just keep the placeholder
+					}
+					
+					final ImageIcon loaded = bi == null ? emptyIcon : new ImageIcon(bi);
+					EventQueue.invokeLater(new Runnable() {
+						public void run() {
+							icons.put(f, loaded);
+							requested.remove(f);
+							
+							int index = model.indexOf(f);
+							if(index >= 0) {
+								Rectangle r = list.getCellBounds(index, index);
+								if(r != null)
+									list.repaint(r);
+							}
+						}
+					});
+				}
+			});
+		}
+		
+		return emptyIcon;
+	}
+}
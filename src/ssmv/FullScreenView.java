@@ -0,0 +1,407 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.AWTException;
+import java.awt.BufferCapabilities;
+import java.awt.Color;
+import java.awt.EventQueue;
+import java.awt.Frame;
+import java.awt.Graphics2D;
+import java.awt.GraphicsDevice;
+import java.awt.ImageCapabilities;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ssmv.SSMV.AnaglyphMethod;
+import ssmv.SSMV.StereoMode;
+
+/**
+ * Presents the images on a whole screen, in full-screen exclusive mode where
+ * supported. The window is rendered actively through a page flipping buffer
+ * strategy and the images are scaled once to the size of the screen.
+ * <p>
+ * Keys: Escape/F11 close, Right/Page Down/Space next file, Left/Page Up/Backspace
+ * previous file, C/A/W cross-eyed/anaglyph/wiggle, I cycles through the interleaved
+ * modes, S swap.
+ * <p>
+ * All methods must be called on the EDT.
+ */
+public class FullScreenView {
+	
+	public interface Listener {
+		/**
+		 * Another file should be opened, the new pair is passed to {@link FullScreenView#setPair}
+		 */
+		public void navigate(int step);
+		
+		public void closed();
+	}
+	
+	private final GraphicsDevice device;
+	private final Listener listener;
+	
+	private final Frame window;
+	private BufferStrategy strategy = null;
+	
+	private StereoMode mode;
+	private final AnaglyphMethod anaglyphMethod;
+	private final int anaglyphMaskIndex;
+	private final int wiggleDelay;
+	private final ImageScaler.Quality quality;
+	
+	private StereoPair pair = null;
+	private boolean swap = false;
+	private boolean align = false;
+	
+	// scaled to the screen, swap and alignment applied
+	private BufferedImage left = null;
+	private BufferedImage right = null;
+	// anaglyph or interleaved image for composedMode
+	private BufferedImage composed = null;
+	private StereoMode composedMode = null;
+	private boolean wiggleSecond = false;
+	
+	private final DisplayCache displayCache = new DisplayCache();
+	
+	private final WiggleAnimator wiggleAnimator = new WiggleAnimator(new WiggleAnimator.Listener() {
+		public void showFrame(boolean second) {
+			wiggleSecond = second;
+			render();
+		}
+	});
+	
+	private final ExecutorService scaler = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SSMV-FullScreen");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	private final AtomicInteger generation = new AtomicInteger();
+	
+	public FullScreenView(GraphicsDevice device, Listener listener, StereoMode mode, AnaglyphMethod anaglyphMethod, int anaglyphMaskIndex, int wiggleDelay, ImageScaler.Quality quality) {
+		this.device = device;
+		this.listener = listener;
+		this.mode = mode;
+		this.anaglyphMethod = anaglyphMethod;
+		this.anaglyphMaskIndex = anaglyphMaskIndex;
+		this.wiggleDelay = wiggleDelay;
+		this.quality = quality;
+		
+		window = new Frame("SSMV", device.getDefaultConfiguration());
+		window.setUndecorated(true);
+		window.setIgnoreRepaint(true);
+		window.setBackground(Color.BLACK);
+		window.setCursor(Toolkit.getDefaultToolkit().createCustomCursor(new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB), new Point(0, 0), "none"));
+		
+		window.addKeyListener(new KeyAdapter() {
+			@Override
+			public void keyPressed(KeyEvent e) {
+				switch(e.getKeyCode()) {
+				case KeyEvent.VK_ESCAPE:
+				case KeyEvent.VK_F11:
+					close();
+					break;
+				case KeyEvent.VK_RIGHT:
+				case KeyEvent.VK_PAGE_DOWN:
+				case KeyEvent.VK_SPACE:
+					FullScreenView.this.listener.navigate(1);
+					break;
+				case KeyEvent.VK_LEFT:
+				case KeyEvent.VK_PAGE_UP:
+				case KeyEvent.VK_BACK_SPACE:
+					FullScreenView.this.listener.navigate(-1);
+					break;
+				case KeyEvent.VK_C:
+					setMode(StereoMode.Cross);
+					break;
+				case KeyEvent.VK_A:
+					setMode(StereoMode.Anaglyph);
+					break;
+				case KeyEvent.VK_W:
+					setMode(StereoMode.Wiggle);
+					break;
+				case KeyEvent.VK_I:
+					setMode(nextInterleavedMode());
+					break;
+				case KeyEvent.VK_S:
+					if(pair != null)
+						setPair(pair, !swap, align);
+					break;
+				}
+			}
+		});
+		
+		window.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowActivated(WindowEvent e) {
+				// repaint events are ignored
+				render();
+			}
+			
+			@Override
+			public void windowClosing(WindowEvent e) {
+				close();
+			}
+		});
+	}
+	
+	public void show() {
+		if(device.isFullScreenSupported()) {
+			device.setFullScreenWindow(window);
+		} else {
+			window.setBounds(device.getDefaultConfiguration().getBounds());
+			window.setVisible(true);
+		}
+		
+		try {
+			window.createBufferStrategy(3, new BufferCapabilities(new ImageCapabilities(true), new ImageCapabilities(true), BufferCapabilities.FlipContents.UNDEFINED));
+		} catch (AWTException e) {
+			// no page flipping, blitting from a back buffer still does not tear as badly as painting directly
+			window.createBufferStrategy(2);
+		}
+		strategy = window.getBufferStrategy();
+		
+		window.requestFocus();
+		
+		if(mode == StereoMode.Wiggle)
+			wiggleAnimator.start(wiggleDelay);
+		
+		render();
+	}
+	
+	public boolean isShowing() {
+		return strategy != null;
+	}
+	
+	public void close() {
+		if(strategy == null)
+			return;
+		
+		generation.incrementAndGet();
+		wiggleAnimator.stop();
+		scaler.shutdownNow();
+		displayCache.clear();
+		
+		if(device.getFullScreenWindow() == window)
+			device.setFullScreenWindow(null);
+		window.dispose();
+		strategy = null;
+		
+		listener.closed();
+	}
+	
+	private StereoMode nextInterleavedMode() {
+		switch(mode) {
+		case RowInterleaved:
+			return StereoMode.ColumnInterleaved;
+		case ColumnInterleaved:
+			return StereoMode.Checkerboard;
+		default:
+			return StereoMode.RowInterleaved;
+		}
+	}
+	
+	private void setMode(StereoMode mode) {
+		if(this.mode == mode)
+			return;
+		
+		// cross-eyed shows two images side by side, they need to be scaled again
+		boolean rescale = this.mode == StereoMode.Cross || mode == StereoMode.Cross;
+		this.mode = mode;
+		
+		if(mode == StereoMode.Wiggle)
+			wiggleAnimator.start(wiggleDelay);
+		else
+			wiggleAnimator.stop();
+		
+		if(rescale && pair != null)
+			setPair(pair, swap, align);
+		else
+			render();
+	}
+	
+	/**
+	 * Scales the pair to the screen in the background and shows it when it is ready
+	 * 
+	 * @param align true to correct the estimated misalignment of the pair
+	 */
+	public void setPair(final StereoPair pair, final boolean swap, boolean align) {
+		if(strategy == null)
+			return;
+		
+		this.pair = pair;
+		this.swap = swap;
+		this.align = align;
+		
+		final StereoAlignment alignment = align ? pair.getAlignment() : null;
+		
+		final int gen = generation.incrementAndGet();
+		final StereoMode mode = this.mode;
+		
+		Rectangle screen = window.getBounds();
+		int bw = mode == StereoMode.Cross ? screen.width / 2 : screen.width;
+		int bh = screen.height;
+		
+		float scale = Math.min((float)bw / pair.getWidth(), (float)bh / pair.getHeight());
+		final int sw = Math.max(1, Math.min(bw, Math.round(pair.getWidth() * scale)));
+		final int sh = Math.max(1, Math.min(bh, Math.round(pair.getHeight() * scale)));
+		final Point parity = getParity(sw, sh);
+		
+		scaler.execute(new Runnable() {
+			public void run() {
+				final BufferedImage [] scaled;
+				final BufferedImage scaledComposed;
+				try {
+					scaled = ImageScaler.scalePair(swap ? pair.getRight() : pair.getLeft(), swap ? pair.getLeft() : pair.getRight(), sw, sh, quality, new ImageScaler.Cancellation() {
+						public boolean isCancelled() {
+							return gen != generation.get();
+						}
+					});
+				} catch (CancellationException e) {
+					return;
+				}
+				
+				if(alignment != null) {
+					int eye = swap ? 0 : 1;
+					scaled[eye] = alignment.apply(scaled[eye], null);
+				}
+				
+				scaledComposed = compose(mode, scaled[0], scaled[1], parity);
+				
+				EventQueue.invokeLater(new Runnable() {
+					public void run() {
+						if(gen != generation.get())
+							return;
+						
+						left = scaled[0];
+						right = scaled[1];
+						composed = scaledComposed;
+						composedMode = mode;
+						displayCache.retain(left, right, composed);
+						render();
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * @return the parity of the screen position of an image of this size when it is centered
+	 */
+	private Point getParity(int w, int h) {
+		Rectangle screen = window.getBounds();
+		return new Point((screen.x + (screen.width - w) / 2) & 1, (screen.y + (screen.height - h) / 2) & 1);
+	}
+	
+	/**
+	 * @return the anaglyph or interleaved image or null if the mode shows the images as they are
+	 */
+	private BufferedImage compose(StereoMode mode, BufferedImage left, BufferedImage right, Point parity) {
+		InterleaveEngine.Pattern pattern = SSMV.getInterleavePattern(mode);
+		if(pattern != null)
+			return InterleaveEngine.interleave(left, right, pattern, parity.x, parity.y, null);
+		if(mode == StereoMode.Anaglyph)
+			return SSMV.createAnaglyphImage(left, right, anaglyphMethod, anaglyphMaskIndex, null);
+		return null;
+	}
+	
+	private BufferedImage getComposed() {
+		if(composed == null || composedMode != mode) {
+			if(composed != null)
+				displayCache.invalidate(composed);
+			composed = compose(mode, left, right, getParity(left.getWidth(), left.getHeight()));
+			composedMode = mode;
+		}
+		return composed;
+	}
+	
+	private void drawCentered(Graphics2D g, BufferedImage bi, int x, int y, int w, int h) {
+		displayCache.draw(g, bi, window.getGraphicsConfiguration(), x + (w - bi.getWidth()) / 2, y + (h - bi.getHeight()) / 2);
+	}
+	
+	private void paint(Graphics2D g) {
+		int w = window.getWidth();
+		int h = window.getHeight();
+		
+		g.setColor(Color.BLACK);
+		g.fillRect(0, 0, w, h);
+		
+		if(left == null)
+			return;
+		
+		switch(mode) {
+		case Anaglyph:
+		case RowInterleaved:
+		case ColumnInterleaved:
+		case Checkerboard:
+			drawCentered(g, getComposed(), 0, 0, w, h);
+			break;
+		case Wiggle:
+			drawCentered(g, wiggleSecond ? right : left, 0, 0, w, h);
+			break;
+		default:
+			// the right eye image is on the left
+			drawCentered(g, right, 0, 0, w / 2, h);
+			drawCentered(g, left, w / 2, 0, w - w / 2, h);
+		}
+	}
+	
+	/**
+	 * Draws a frame into the back buffer and shows it
+	 */
+	private void render() {
+		if(strategy == null)
+			return;
+		
+		do {
+			do {
+				Graphics2D g = (Graphics2D)strategy.getDrawGraphics();
+				try {
+					paint(g);
+				} finally {
+					g.dispose();
+				}
+			} while(strategy.contentsRestored());
+			
+			strategy.show();
+		} while(strategy.contentsLost());
+		
+		Toolkit.getDefaultToolkit().sync();
+	}
+}
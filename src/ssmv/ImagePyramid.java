@@ -0,0 +1,234 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * Mip levels (1/2, 1/4, 1/8...) of a stereo pair and a small cache of
+ * the sizes the pair has been scaled to, together bounded by the amount of pixel memory.
+ * The levels are built once in the background, a resize starts from the
+ * smallest level that is still at least as large as the requested size.
+ */
+public class ImagePyramid {
+	
+	// no levels below this edge length
+	private static final int MIN_LEVEL_SIZE = 64;
+	
+	private final StereoPair pair;
+	
+	// for the levels and the scaled sizes, the originals are not counted
+	private final long maxBytes;
+	
+	// level 0 are the originals, guarded by levels
+	private final List<BufferedImage []> levels = new ArrayList<BufferedImage []>();
+	private long levelBytes = 0;
+	
+	private volatile boolean cancelled = false;
+	
+	private static class SizeKey {
+		private final int width;
+		private final int height;
+		private final ImageScaler.Quality quality;
+		
+		public SizeKey(int width, int height, ImageScaler.Quality quality) {
+			this.width = width;
+			this.height = height;
+			this.quality = quality;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof SizeKey))
+				return false;
+			SizeKey k = (SizeKey)obj;
+			return k.width == width && k.height == height && k.quality == quality;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (width * 31 + height) * 31 + quality.hashCode();
+		}
+	}
+	
+	// guarded by levels
+	private final LinkedHashMap<SizeKey, BufferedImage []> scaledCache = new LinkedHashMap<SizeKey, BufferedImage []>(16, 0.75f, true);
+	private long scaledBytes = 0;
+	
+	private final ImageScaler.Cancellation cancellation = new ImageScaler.Cancellation() {
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	};
+	
+	/**
+	 * @param maxBytes upper limit for the pixel data of the levels and the scaled sizes
+	 */
+	public ImagePyramid(StereoPair pair, long maxBytes) {
+		this.pair = pair;
+		this.maxBytes = maxBytes;
+		levels.add(new BufferedImage [] { pair.getLeft(), pair.getRight() });
+	}
+	
+	public StereoPair getPair() {
+		return pair;
+	}
+	
+	/**
+	 * Builds the levels on the given executor. Both eyes are halved in parallel,
+	 * each level is usable as soon as it is done.
+	 */
+	public void build(Executor executor) {
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					BufferedImage [] level = getLevel(0);
+					while(!cancelled && Math.min(level[0].getWidth(), level[0].getHeight()) >= MIN_LEVEL_SIZE * 2) {
+						// the larger levels are the useful ones, the smaller ones are left out
+						synchronized (levels) {
+							if(levelBytes + bytesOf(level) / 4 > maxBytes)
+								break;
+						}
+						
+						final BufferedImage [] parent = level;
+						final BufferedImage [] next = new BufferedImage [2];
+						
+						RowBands.parallel(new Runnable() {
+							public void run() {
+								next[0] = ImageScaler.halve(parent[0], cancellation);
+							}
+						}, new Runnable() {
+							public void run() {
+								next[1] = ImageScaler.halve(parent[1], cancellation);
+							}
+						});
+						
+						synchronized (levels) {
+							levels.add(next);
+							levelBytes += bytesOf(next);
+							
+							// the levels have priority over the scaled sizes
+							Iterator<BufferedImage []> i = scaledCache.values().iterator();
+							while(levelBytes + scaledBytes > maxBytes && i.hasNext()) {
+								scaledBytes -= bytesOf(i.next());
+								i.remove();
+							}
+						}
+						level = next;
+					}
+				} catch (CancellationException e) {
+				}
+			}
+		});
+	}
+	
+	private static long bytesOf(BufferedImage [] images) {
+		return 4L * images[0].getWidth() * images[0].getHeight() + 4L * images[1].getWidth() * images[1].getHeight();
+	}
+	
+	/**
+	 * Stops building levels. Already built levels stay usable.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	public int getLevelCount() {
+		synchronized (levels) {
+			return levels.size();
+		}
+	}
+	
+	public BufferedImage [] getLevel(int index) {
+		synchronized (levels) {
+			return levels.get(index);
+		}
+	}
+	
+	/**
+	 * @return the smallest available level that is at least as large as the given size
+	 */
+	public BufferedImage [] getSourceFor(int width, int height) {
+		synchronized (levels) {
+			BufferedImage [] best = levels.get(0);
+			for(BufferedImage [] level : levels) {
+				if(level[0].getWidth() < width || level[0].getHeight() < height)
+					break;
+				best = level;
+			}
+			return best;
+		}
+	}
+	
+	/**
+	 * @return the images previously scaled to this size or null
+	 */
+	public BufferedImage [] getScaled(int width, int height, ImageScaler.Quality quality) {
+		synchronized (levels) {
+			return scaledCache.get(new SizeKey(width, height, quality));
+		}
+	}
+	
+	/**
+	 * Scales both images to the given size, starting from the nearest larger level.
+	 * The result is cached if it fits, the least recently used sizes are dropped first.
+	 * 
+	 * @throws CancellationException if cancelled
+	 */
+	public BufferedImage [] scale(int width, int height, ImageScaler.Quality quality, ImageScaler.Cancellation cancel) {
+		BufferedImage [] scaled = getScaled(width, height, quality);
+		if(scaled != null)
+			return scaled;
+		
+		BufferedImage [] source = getSourceFor(width, height);
+		if(source[0].getWidth() == width && source[0].getHeight() == height)
+			return source;
+		
+		scaled = ImageScaler.scalePair(source[0], source[1], width, height, quality, cancel);
+		
+		long bytes = bytesOf(scaled);
+		synchronized (levels) {
+			if(levelBytes + bytes <= maxBytes) {
+				Iterator<BufferedImage []> i = scaledCache.values().iterator();
+				while(levelBytes + scaledBytes + bytes > maxBytes && i.hasNext()) {
+					scaledBytes -= bytesOf(i.next());
+					i.remove();
+				}
+				
+				BufferedImage [] old = scaledCache.put(new SizeKey(width, height, quality), scaled);
+				if(old != null)
+					scaledBytes -= bytesOf(old);
+				scaledBytes += bytes;
+			}
+		}
+		
+		return scaled;
+	}
+}
@@ -0,0 +1,370 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package ssmv;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Scales images on their pixel arrays, split into row bands that run in parallel.
+ * <ul>
+ * <li>Fast: bilinear interpolation</li>
+ * <li>Progressive: halving with a 2x2 box filter, then one bicubic step</li>
+ * <li>HighQuality: area averaging when shrinking, bicubic when enlarging</li>
+ * </ul>
+ */
+public class ImageScaler {
+	
+	public static enum Quality { Fast, Progressive, HighQuality };
+	
+	public static interface Cancellation {
+		public boolean isCancelled();
+	}
+	
+	private static final int WEIGHT_SHIFT = 14;
+	private static final int WEIGHT_ONE = 1 << WEIGHT_SHIFT;
+	
+	private ImageScaler() {
+	}
+	
+	public static String qualityToString(Quality q) {
+		return q.name();
+	}
+	
+	public static Quality stringToQuality(String s) {
+		for(Quality q : Quality.values()) {
+			if(q.name().toLowerCase().equals(s.toLowerCase()))
+				return q;
+		}
+		return Quality.Progressive;
+	}
+	
+	private static void checkCancelled(Cancellation c) {
+		if(c != null && c.isCancelled())
+			throw new CancellationException();
+	}
+	
+	/**
+	 * Contributions of the source pixels to each destination pixel along one axis.
+	 * For destination pixel i the taps are index[offset[i]..offset[i+1]-1].
+	 */
+	private static class Contributions {
+		final int [] offset;
+		final int [] index;
+		final int [] weight;
+		
+		Contributions(int [] offset, int [] index, int [] weight) {
+			this.offset = offset;
+			this.index = index;
+			this.weight = weight;
+		}
+	}
+	
+	private static abstract class Filter {
+		/**
+		 * Adds taps for the destination pixel to idx/w and returns the number of taps
+		 */
+		abstract int taps(int dst, double scale, int srcLen, int [] idx, double [] w);
+		abstract int maxTaps(double scale);
+	}
+	
+	private static int clampIndex(int i, int len) {
+		return i < 0 ? 0 : (i >= len ? len - 1 : i);
+	}
+	
+	private static final Filter BILINEAR = new Filter() {
+		int taps(int dst, double scale, int srcLen, int [] idx, double [] w) {
+			double pos = (dst + 0.5) * scale - 0.5;
+			int x0 = (int)Math.floor(pos);
+			double f = pos - x0;
+			idx[0] = clampIndex(x0, srcLen);
+			w[0] = 1.0 - f;
+			idx[1] = clampIndex(x0 + 1, srcLen);
+			w[1] = f;
+			return 2;
+		}
+		
+		int maxTaps(double scale) {
+			return 2;
+		}
+	};
+	
+	// Catmull-Rom
+	private static double cubic(double x) {
+		x = Math.abs(x);
+		if(x < 1.0)
+			return 1.5 * x * x * x - 2.5 * x * x + 1.0;
+		if(x < 2.0)
+			return -0.5 * x * x * x + 2.5 * x * x - 4.0 * x + 2.0;
+		return 0.0;
+	}
+	
+	private static final Filter BICUBIC = new Filter() {
+		int taps(int dst, double scale, int srcLen, int [] idx, double [] w) {
+			double pos = (dst + 0.5) * scale - 0.5;
+			int x0 = (int)Math.floor(pos);
+			for(int k=0; k<4; k++) {
+				int x = x0 - 1 + k;
+				idx[k] = clampIndex(x, srcLen);
+				w[k] = cubic(pos - x);
+			}
+			return 4;
+		}
+		
+		int maxTaps(double scale) {
+			return 4;
+		}
+	};
+	
+	private static final Filter AREA = new Filter() {
+		int taps(int dst, double scale, int srcLen, int [] idx, double [] w) {
+			double start = dst * scale;
+			double end = Math.min(srcLen, (dst + 1) * scale);
+			int i0 = (int)Math.floor(start);
+			int i1 = Math.min(srcLen - 1, (int)Math.ceil(end) - 1);
+			int n = 0;
+			for(int i=i0; i<=i1; i++) {
+				double overlap = Math.min(end, i + 1) - Math.max(start, i);
+				if(overlap <= 0)
+					continue;
+				idx[n] = i;
+				w[n] = overlap;
+				n++;
+			}
+			return n;
+		}
+		
+		int maxTaps(double scale) {
+			return (int)Math.ceil(scale) + 2;
+		}
+	};
+	
+	private static Contributions contributions(int srcLen, int dstLen, Filter filter) {
+		double scale = (double)srcLen / (double)dstLen;
+		int max = filter.maxTaps(scale);
+		
+		int [] idx = new int [max];
+		double [] w = new double [max];
+		
+		int [] offset = new int [dstLen + 1];
+		int [] index = new int [dstLen * max];
+		int [] weight = new int [dstLen * max];
+		
+		int pos = 0;
+		for(int d=0; d<dstLen; d++) {
+			offset[d] = pos;
+			int n = filter.taps(d, scale, srcLen, idx, w);
+			
+			double sum = 0.0;
+			for(int k=0; k<n; k++)
+				sum += w[k];
+			
+			// normalize to fixed point, the rounding error goes to the largest weight
+			int isum = 0;
+			int largest = 0;
+			for(int k=0; k<n; k++) {
+				index[pos + k] = idx[k];
+				weight[pos + k] = (int)Math.round(w[k] / sum * WEIGHT_ONE);
+				isum += weight[pos + k];
+				if(Math.abs(w[k]) > Math.abs(w[largest]))
+					largest = k;
+			}
+			weight[pos + largest] += WEIGHT_ONE - isum;
+			
+			pos += n;
+		}
+		offset[dstLen] = pos;
+		
+		return new Contributions(offset, index, weight);
+	}
+	
+	private static int clamp8(int v) {
+		v = (v + (WEIGHT_ONE >> 1)) >> WEIGHT_SHIFT;
+		return v < 0 ? 0 : (v > 255 ? 255 : v);
+	}
+	
+	/**
+	 * Separable resampling, horizontal pass into a temporary image, then vertical pass.
+	 */
+	private static BufferedImage resample(BufferedImage src, int dw, int dh, Filter hfilter, Filter vfilter, final Cancellation cancel) {
+		final IntRaster s = IntRaster.of(src);
+		final int sh = s.height;
+		
+		final Contributions ch = contributions(s.width, dw, hfilter);
+		final Contributions cv = contributions(sh, dh, vfilter);
+		
+		final int tw = dw;
+		final int [] tmp = new int [tw * sh];
+		
+		RowBands.run(tw, sh, new RowBands.Rows() {
+			public void process(int y0, int y1) {
+				checkCancelled(cancel);
+				
+				int [] sd = s.data;
+				for(int y=y0; y<y1; y++) {
+					int si = s.index(0, y);
+					int ti = y * tw;
+					for(int x=0; x<tw; x++) {
+						int a = 0, r = 0, g = 0, b = 0;
+						for(int k=ch.offset[x], e=ch.offset[x+1]; k<e; k++) {
+							int p = sd[si + ch.index[k]];
+							int wk = ch.weight[k];
+							a += (p >>> 24) * wk;
+							r += ((p >> 16) & 0xFF) * wk;
+							g += ((p >> 8) & 0xFF) * wk;
+							b += (p & 0xFF) * wk;
+						}
+						tmp[ti + x] = (clamp8(a) << 24) | (clamp8(r) << 16) | (clamp8(g) << 8) | clamp8(b);
+					}
+				}
+			}
+		});
+		
+		BufferedImage dst = IntRaster.createIntImage(dw, dh, SSMV.hasTransparency(src));
+		final IntRaster d = IntRaster.of(dst);
+		
+		RowBands.run(tw, dh, new RowBands.Rows() {
+			public void process(int y0, int y1) {
+				checkCancelled(cancel);
+				
+				int [] acc = new int [tw * 4];
+				int [] dd = d.data;
+				
+				for(int y=y0; y<y1; y++) {
+					Arrays.fill(acc, 0);
+					
+					for(int k=cv.offset[y], e=cv.offset[y+1]; k<e; k++) {
+						int ti = cv.index[k] * tw;
+						int wk = cv.weight[k];
+						for(int x=0, ai=0; x<tw; x++, ai+=4) {
+							int p = tmp[ti + x];
+							acc[ai] += (p >>> 24) * wk;
+							acc[ai + 1] += ((p >> 16) & 0xFF) * wk;
+							acc[ai + 2] += ((p >> 8) & 0xFF) * wk;
+							acc[ai + 3] += (p & 0xFF) * wk;
+						}
+					}
+					
+					int di = d.index(0, y);
+					for(int x=0, ai=0; x<tw; x++, ai+=4) {
+						dd[di + x] = (clamp8(acc[ai]) << 24) | (clamp8(acc[ai + 1]) << 16) | (clamp8(acc[ai + 2]) << 8) | clamp8(acc[ai + 3]);
+					}
+				}
+			}
+		});
+		
+		return dst;
+	}
+	
+	/**
+	 * Halves the image with a 2x2 box filter
+	 */
+	public static BufferedImage halve(BufferedImage src, final Cancellation cancel) {
+		final IntRaster s = IntRaster.of(IntRaster.toIntImage(src));
+		final int dw = Math.max(1, s.width / 2);
+		final int dh = Math.max(1, s.height / 2);
+		
+		BufferedImage dst = IntRaster.createIntImage(dw, dh, SSMV.hasTransparency(src));
+		final IntRaster d = IntRaster.of(dst);
+		
+		// for images that are only one pixel wide or high
+		final int dx = s.width > 1 ? 1 : 0;
+		final int dy = s.height > 1 ? 1 : 0;
+		
+		RowBands.run(dw, dh, new RowBands.Rows() {
+			public void process(int y0, int y1) {
+				checkCancelled(cancel);
+				
+				int [] sd = s.data;
+				int [] dd = d.data;
+				
+				for(int y=y0; y<y1; y++) {
+					int s0 = s.index(0, y * 2);
+					int s1 = s.index(0, y * 2 + dy);
+					int di = d.index(0, y);
+					
+					for(int x=0; x<dw; x++) {
+						int x0 = x * 2;
+						int p0 = sd[s0 + x0];
+						int p1 = sd[s0 + x0 + dx];
+						int p2 = sd[s1 + x0];
+						int p3 = sd[s1 + x0 + dx];
+						
+						int a = ((p0 >>> 24) + (p1 >>> 24) + (p2 >>> 24) + (p3 >>> 24) + 2) >> 2;
+						int r = (((p0 >> 16) & 0xFF) + ((p1 >> 16) & 0xFF) + ((p2 >> 16) & 0xFF) + ((p3 >> 16) & 0xFF) + 2) >> 2;
+						int g = (((p0 >> 8) & 0xFF) + ((p1 >> 8) & 0xFF) + ((p2 >> 8) & 0xFF) + ((p3 >> 8) & 0xFF) + 2) >> 2;
+						int b = ((p0 & 0xFF) + (p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF) + 2) >> 2;
+						
+						dd[di + x] = (a << 24) | (r << 16) | (g << 8) | b;
+					}
+				}
+			}
+		});
+		
+		return dst;
+	}
+	
+	/**
+	 * Scales the image to the given size.
+	 * 
+	 * @param cancel checked between row bands, may be null
+	 * @throws CancellationException if cancelled
+	 */
+	public static BufferedImage scale(BufferedImage src, int dw, int dh, Quality quality, Cancellation cancel) {
+		src = IntRaster.toIntImage(src);
+		
+		switch(quality) {
+		case Fast:
+			return resample(src, dw, dh, BILINEAR, BILINEAR, cancel);
+		case HighQuality:
+			return resample(src, dw, dh, dw < src.getWidth() ? AREA : BICUBIC, dh < src.getHeight() ? AREA : BICUBIC, cancel);
+		default:
+			while(src.getWidth() >= dw * 2 && src.getHeight() >= dh * 2) {
+				src = halve(src, cancel);
+			}
+			return resample(src, dw, dh, BICUBIC, BICUBIC, cancel);
+		}
+	}
+	
+	/**
+	 * Scales both images at the same time.
+	 * 
+	 * @return the scaled left and right image
+	 */
+	public static BufferedImage [] scalePair(final BufferedImage left, final BufferedImage right, final int dw, final int dh, final Quality quality, final Cancellation cancel) {
+		final BufferedImage [] result = new BufferedImage [2];
+		
+		RowBands.parallel(new Runnable() {
+			public void run() {
+				result[0] = scale(left, dw, dh, quality, cancel);
+			}
+		}, new Runnable() {
+			public void run() {
+				result[1] = scale(right, dw, dh, quality, cancel);
+			}
+		});
+		
+		return result;
+	}
+}
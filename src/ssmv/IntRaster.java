@@ -0,0 +1,90 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package ssmv;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Direct access to the pixel array of an INT_RGB or INT_ARGB image.
+ * Works for sub-images as well, pixel (x,y) is at data[offset + y * stride + x].
+ */
+public class IntRaster {
+	
+	public final int [] data;
+	public final int offset;
+	public final int stride;
+	public final int width;
+	public final int height;
+	
+	private IntRaster(int [] data, int offset, int stride, int width, int height) {
+		this.data = data;
+		this.offset = offset;
+		this.stride = stride;
+		this.width = width;
+		this.height = height;
+	}
+	
+	public static boolean isIntImage(BufferedImage bi) {
+		int type = bi.getType();
+		return type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB;
+	}
+	
+	public static BufferedImage createIntImage(int w, int h, boolean withAlpha) {
+		return new BufferedImage(w, h, withAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+	}
+	
+	/**
+	 * @return the image itself if it is already an INT_RGB/INT_ARGB image or a converted copy
+	 */
+	public static BufferedImage toIntImage(BufferedImage bi) {
+		if(isIntImage(bi))
+			return bi;
+		
+		BufferedImage ii = createIntImage(bi.getWidth(), bi.getHeight(), SSMV.hasTransparency(bi));
+		Graphics2D g = ii.createGraphics();
+		g.drawImage(bi, 0, 0, null);
+		g.dispose();
+		
+		return ii;
+	}
+	
+	public static IntRaster of(BufferedImage bi) {
+		if(!isIntImage(bi))
+			throw new IllegalArgumentException("Not an INT_RGB or INT_ARGB image!");
+		
+		WritableRaster r = bi.getRaster();
+		DataBufferInt db = (DataBufferInt)r.getDataBuffer();
+		int stride = ((SinglePixelPackedSampleModel)r.getSampleModel()).getScanlineStride();
+		int offset = db.getOffset() - r.getSampleModelTranslateY() * stride - r.getSampleModelTranslateX();
+		
+		return new IntRaster(db.getData(), offset, stride, r.getWidth(), r.getHeight());
+	}
+	
+	public int index(int x, int y) {
+		return offset + y * stride + x;
+	}
+}
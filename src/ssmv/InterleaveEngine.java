@@ -0,0 +1,90 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Interleaves the pixels of the left and right image for passive 3D displays
+ * (row or column interleaved polarization) and DLP projectors (checkerboard).
+ * The destination image is reused if it fits.
+ */
+public class InterleaveEngine {
+	
+	public static enum Pattern { Rows, Columns, Checkerboard };
+	
+	private InterleaveEngine() {
+	}
+	
+	/**
+	 * The parity is the position of the image on the display grid. The left eye gets the
+	 * even display rows, the even display columns or the display pixels where x + y is even.
+	 * 
+	 * @param parityX display column of the first image column (only the lowest bit matters)
+	 * @param parityY display row of the first image row
+	 */
+	public static BufferedImage interleave(BufferedImage left, BufferedImage right, final Pattern pattern, final int parityX, final int parityY, BufferedImage dst) {
+		dst = AnaglyphEngine.prepareDestination(left, dst);
+		
+		final IntRaster l = IntRaster.of(IntRaster.toIntImage(left));
+		final IntRaster r = IntRaster.of(IntRaster.toIntImage(right));
+		final IntRaster d = IntRaster.of(dst);
+		
+		final int w = d.width;
+		
+		RowBands.run(w, d.height, new RowBands.Rows() {
+			public void process(int y0, int y1) {
+				int [] ld = l.data;
+				int [] rd = r.data;
+				int [] dd = d.data;
+				
+				for(int y=y0; y<y1; y++) {
+					int li = l.index(0, y);
+					int ri = r.index(0, y);
+					int di = d.index(0, y);
+					
+					if(pattern == Pattern.Rows) {
+						if(((y + parityY) & 1) == 0)
+							System.arraycopy(ld, li, dd, di, w);
+						else
+							System.arraycopy(rd, ri, dd, di, w);
+						continue;
+					}
+					
+					// first image column that belongs to the left eye
+					int phase = (pattern == Pattern.Columns) ? (parityX & 1) : ((parityX + parityY + y) & 1);
+					
+					for(int x=phase; x<w; x+=2) {
+						dd[di + x] = ld[li + x];
+					}
+					for(int x=1-phase; x<w; x+=2) {
+						dd[di + x] = rd[ri + x];
+					}
+				}
+			}
+		});
+		
+		return dst;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package ssmv;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+
+/**
+ * Cancellation and progress handle for one load operation.
+ * Cancelling aborts all image readers that are currently working for the task.
+ */
+public class LoadTask {
+	
+	public static interface ProgressListener {
+		public void progress(int percent);
+	}
+	
+	private volatile boolean cancelled = false;
+	
+	private final List<ImageReader> readers = new ArrayList<ImageReader>();
+	
+	private final ProgressListener listener;
+	private float [] partProgress = new float [1];
+	
+	public LoadTask(ProgressListener listener) {
+		this.listener = listener;
+	}
+	
+	public void cancel() {
+		synchronized (readers) {
+			cancelled = true;
+			for(ImageReader reader : readers) {
+				try {
+					reader.abort();
+				} catch(IllegalStateException e) {
+					// the JPEG reader only accepts calls from its decoding thread,
+					// the progress listener aborts it there
+				}
+			}
+		}
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	public void checkCancelled() throws InterruptedIOException {
+		if(cancelled)
+			throw new InterruptedIOException("Loading was cancelled!");
+	}
+	
+	/**
+	 * Sets the number of images that make up the whole task for progress reporting
+	 */
+	public synchronized void setParts(int parts) {
+		partProgress = new float [Math.max(1, parts)];
+	}
+	
+	private void updateProgress(int part, float percent) {
+		float sum = 0f;
+		synchronized (this) {
+			if(part >= partProgress.length)
+				return;
+			partProgress[part] = percent;
+			for(float p : partProgress)
+				sum += p;
+			sum /= partProgress.length;
+		}
+		if(listener != null)
+			listener.progress(Math.round(sum));
+	}
+	
+	public void register(final ImageReader reader, final int part) {
+		synchronized (readers) {
+			readers.add(reader);
+		}
+		reader.addIIOReadProgressListener(new IIOReadProgressListener() {
+			public void imageProgress(ImageReader source, float percentageDone) {
+				if(cancelled)
+					source.abort();
+				updateProgress(part, percentageDone);
+			}
+			public void imageComplete(ImageReader source) {
+				updateProgress(part, 100f);
+			}
+			public void sequenceStarted(ImageReader source, int minIndex) {
+			}
+			public void sequenceComplete(ImageReader source) {
+			}
+			public void imageStarted(ImageReader source, int imageIndex) {
+				if(cancelled)
+					source.abort();
+			}
+			public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+			}
+			public void thumbnailProgress(ImageReader source, float percentageDone) {
+			}
+			public void thumbnailComplete(ImageReader source) {
+			}
+			public void readAborted(ImageReader source) {
+			}
+		});
+	}
+	
+	public void unregister(ImageReader reader) {
+		synchronized (readers) {
+			readers.remove(reader);
+		}
+		reader.removeAllIIOReadProgressListeners();
+	}
+}
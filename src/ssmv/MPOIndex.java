@@ -0,0 +1,332 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package ssmv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The MP Index IFD of a Multi Picture Object file (CIPA DC-007).
+ * It is stored in the APP2 'MPF' segment of the first image and tells where
+ * every individual image is located in the file.
+ */
+public class MPOIndex {
+	
+	public static final int MARKER_SOI = 0xD8;
+	public static final int MARKER_EOI = 0xD9;
+	public static final int MARKER_SOS = 0xDA;
+	public static final int MARKER_APP1 = 0xE1;
+	public static final int MARKER_APP2 = 0xE2;
+	
+	public static final int TAG_MPF_VERSION = 0xB000;
+	public static final int TAG_NUMBER_OF_IMAGES = 0xB001;
+	public static final int TAG_MP_ENTRY = 0xB002;
+	
+	public static final int TYPE_UNDEFINED = 0x000000;
+	public static final int TYPE_LARGE_THUMBNAIL_VGA = 0x010001;
+	public static final int TYPE_LARGE_THUMBNAIL_FULLHD = 0x010002;
+	public static final int TYPE_PANORAMA = 0x020001;
+	public static final int TYPE_DISPARITY = 0x020002;
+	public static final int TYPE_MULTI_ANGLE = 0x020003;
+	public static final int TYPE_BASELINE_PRIMARY = 0x030000;
+	
+	public static final int FORMAT_JPEG = 0;
+	
+	private static final int MP_ENTRY_SIZE = 16;
+	
+	private static final byte [] MPF_IDENTIFIER = { 'M', 'P', 'F', 0 };
+	
+	public static class Entry {
+		private final int attribute;
+		private final int offset;
+		private final int size;
+		private final int dependent1;
+		private final int dependent2;
+		
+		public Entry(int attribute, int offset, int size, int dependent1, int dependent2) {
+			this.attribute = attribute;
+			this.offset = offset;
+			this.size = size;
+			this.dependent1 = dependent1;
+			this.dependent2 = dependent2;
+		}
+		
+		public int getAttribute() {
+			return attribute;
+		}
+		
+		public int getType() {
+			return attribute & 0x00FFFFFF;
+		}
+		
+		public int getFormat() {
+			return (attribute >>> 24) & 0x07;
+		}
+		
+		public boolean isJPEG() {
+			return getFormat() == FORMAT_JPEG;
+		}
+		
+		public boolean isThumbnail() {
+			int type = getType();
+			return type == TYPE_LARGE_THUMBNAIL_VGA || type == TYPE_LARGE_THUMBNAIL_FULLHD;
+		}
+		
+		public boolean isRepresentative() {
+			return (attribute & 0x20000000) != 0;
+		}
+		
+		/**
+		 * Absolute position of the image data in the file
+		 */
+		public int getOffset() {
+			return offset;
+		}
+		
+		public int getSize() {
+			return size;
+		}
+		
+		public int getDependent1() {
+			return dependent1;
+		}
+		
+		public int getDependent2() {
+			return dependent2;
+		}
+	}
+	
+	private final List<Entry> entries;
+	
+	private MPOIndex(List<Entry> entries) {
+		this.entries = Collections.unmodifiableList(entries);
+	}
+	
+	public int getImageCount() {
+		return entries.size();
+	}
+	
+	public Entry getEntry(int index) {
+		return entries.get(index);
+	}
+	
+	public List<Entry> getEntries() {
+		return entries;
+	}
+	
+	/**
+	 * @return the full size JPEG images in file order (thumbnails are skipped)
+	 */
+	public List<Entry> getImageEntries() {
+		List<Entry> images = new ArrayList<Entry>(entries.size());
+		for(Entry e : entries) {
+			if(e.isJPEG() && !e.isThumbnail())
+				images.add(e);
+		}
+		return images;
+	}
+	
+	private static int u8(ByteBuffer data, int pos) {
+		return data.get(pos) & 0xFF;
+	}
+	
+	private static int u16be(ByteBuffer data, int pos) {
+		return (u8(data, pos) << 8) | u8(data, pos+1);
+	}
+	
+	/**
+	 * Searches the header segments of the JPEG at the start of data for an
+	 * application segment with the given marker that starts with the identifier.
+	 * 
+	 * @return the position of the segment marker or -1 if there is no such segment
+	 */
+	static int findSegment(ByteBuffer data, int appMarker, byte [] identifier) {
+		int limit = data.limit();
+		
+		if(limit < 4 || u8(data, 0) != 0xFF || u8(data, 1) != MARKER_SOI)
+			return -1;
+		
+		int pos = 2;
+		while(pos + 4 <= limit) {
+			if(u8(data, pos) != 0xFF)
+				return -1;
+			
+			int marker = u8(data, pos+1);
+			
+			if(marker == 0xFF) {
+				pos++;
+				continue;
+			}
+			
+			if(marker == MARKER_SOS || marker == MARKER_EOI)
+				return -1;
+			
+			if(marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+				pos += 2;
+				continue;
+			}
+			
+			int length = u16be(data, pos+2);
+			if(length < 2)
+				return -1;
+			
+			if(marker == appMarker && length >= 2 + identifier.length && hasIdentifier(data, pos+4, identifier))
+				return pos;
+			
+			pos += 2 + length;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * @return the end of the segment at pos (limited to the data)
+	 */
+	static int segmentEnd(ByteBuffer data, int pos) {
+		return Math.min(pos + 2 + u16be(data, pos+2), data.limit());
+	}
+	
+	private static boolean hasIdentifier(ByteBuffer data, int pos, byte [] identifier) {
+		if(pos + identifier.length > data.limit())
+			return false;
+		for(int i=0; i<identifier.length; i++) {
+			if(data.get(pos+i) != identifier[i])
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Searches the header segments of the JPEG at the start of data (position 0 up to the limit)
+	 * for the MPF segment.
+	 * 
+	 * @return the index or null if there is no MPF segment
+	 * @throws IOException if there is an MPF segment but it is not valid
+	 */
+	public static MPOIndex parse(ByteBuffer data) throws IOException {
+		if(data.limit() < 4 || u8(data, 0) != 0xFF || u8(data, 1) != MARKER_SOI)
+			throw new IOException("File does not contain JPEG data!");
+		
+		int pos = findSegment(data, MARKER_APP2, MPF_IDENTIFIER);
+		if(pos < 0)
+			return null;
+		
+		return parseIndexIFD(data, pos+8, segmentEnd(data, pos));
+	}
+	
+	private static void checkRange(int pos, int length, int end) throws IOException {
+		if(pos < 0 || pos + length > end)
+			throw new IOException("MPF segment is truncated!");
+	}
+	
+	private static MPOIndex parseIndexIFD(ByteBuffer data, int tiffStart, int segmentEnd) throws IOException {
+		checkRange(tiffStart, 8, segmentEnd);
+		
+		ByteOrder order;
+		int bo = u16be(data, tiffStart);
+		if(bo == 0x4949) {
+			order = ByteOrder.LITTLE_ENDIAN;
+		} else if(bo == 0x4D4D) {
+			order = ByteOrder.BIG_ENDIAN;
+		} else {
+			throw new IOException("Invalid byte order in MPF segment!");
+		}
+		
+		ByteBuffer b = data.duplicate().order(order);
+		
+		if(b.getShort(tiffStart + 2) != 0x002A)
+			throw new IOException("Invalid MPF header!");
+		
+		// all offsets in the MPF segment are relative to the byte order field
+		int ifd = tiffStart + b.getInt(tiffStart + 4);
+		checkRange(ifd, 2, segmentEnd);
+		
+		int tagCount = b.getShort(ifd) & 0xFFFF;
+		
+		int numberOfImages = -1;
+		int entryOffset = -1;
+		int entryLength = 0;
+		
+		for(int i=0; i<tagCount; i++) {
+			int tpos = ifd + 2 + i * 12;
+			checkRange(tpos, 12, segmentEnd);
+			
+			int tag = b.getShort(tpos) & 0xFFFF;
+			
+			switch(tag) {
+			case TAG_NUMBER_OF_IMAGES:
+				numberOfImages = b.getInt(tpos + 8);
+				break;
+			case TAG_MP_ENTRY:
+				entryLength = b.getInt(tpos + 4);
+				entryOffset = tiffStart + b.getInt(tpos + 8);
+				break;
+			}
+		}
+		
+		if(numberOfImages <= 0 || entryOffset < 0 || entryLength < 0)
+			throw new IOException("MP Index IFD is incomplete!");
+		
+		// checked before anything is allocated for the entries, the count is not trusted
+		if(entryOffset > segmentEnd || numberOfImages > (segmentEnd - entryOffset) / MP_ENTRY_SIZE)
+			throw new IOException("MPF segment is truncated!");
+		
+		if(entryLength < numberOfImages * MP_ENTRY_SIZE)
+			throw new IOException("MP Index IFD has too few entries!");
+		
+		int limit = data.limit();
+		List<Entry> entries = new ArrayList<Entry>(numberOfImages);
+		
+		for(int i=0; i<numberOfImages; i++) {
+			int epos = entryOffset + i * MP_ENTRY_SIZE;
+			
+			int attribute = b.getInt(epos);
+			long size = b.getInt(epos + 4) & 0xFFFFFFFFL;
+			long offset = b.getInt(epos + 8) & 0xFFFFFFFFL;
+			int dep1 = b.getShort(epos + 12) & 0xFFFF;
+			int dep2 = b.getShort(epos + 14) & 0xFFFF;
+			
+			// the first image always starts at the beginning of the file
+			if(i == 0)
+				offset = 0;
+			else
+				offset += tiffStart;
+			
+			if(offset + size > limit)
+				throw new IOException("MP entry " + (i+1) + " points beyond the end of the file!");
+			
+			Entry e = new Entry(attribute, (int)offset, (int)size, dep1, dep2);
+			
+			if(e.isJPEG() && (size < 2 || u8(data, e.getOffset()) != 0xFF || u8(data, e.getOffset() + 1) != MARKER_SOI))
+				throw new IOException("MP entry " + (i+1) + " does not point to JPEG data!");
+			
+			entries.add(e);
+		}
+		
+		return new MPOIndex(entries);
+	}
+}
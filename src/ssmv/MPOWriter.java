@@ -0,0 +1,332 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes a stereo pair as a Multi Picture Object (CIPA DC-007).
+ * <p>
+ * Both eyes are encoded at the same time into temporary files. The output is
+ * then streamed from these files with an APP2 MPF segment inserted after the SOI
+ * marker of each image. The first image carries the MP Index IFD, both carry an
+ * MP Attribute IFD. The JFIF APP0 segment written by ImageIO is dropped, MPF
+ * files do not use JFIF.
+ */
+public class MPOWriter {
+	
+	public static final float DEFAULT_QUALITY = 0.92f;
+	
+	private static final int TAG_MPF_VERSION = MPOIndex.TAG_MPF_VERSION;
+	private static final int TAG_NUMBER_OF_IMAGES = MPOIndex.TAG_NUMBER_OF_IMAGES;
+	private static final int TAG_MP_ENTRY = MPOIndex.TAG_MP_ENTRY;
+	private static final int TAG_INDIVIDUAL_NUM = 0xB101;
+	private static final int TAG_BASE_VIEWPOINT_NUM = 0xB204;
+	
+	private static final int TYPE_UNDEFINED = 7;
+	private static final int TYPE_LONG = 4;
+	
+	private static final int FLAG_REPRESENTATIVE = 0x20000000;
+	
+	private static final int MARKER_APP0 = 0xE0;
+	
+	private static final ExecutorService encodePool = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SSMV-Encoder-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	private MPOWriter() {
+	}
+	
+	/**
+	 * Encodes the image as a baseline JPEG.
+	 * 
+	 * @param quality 0.0 to 1.0
+	 */
+	public static void writeJPEG(BufferedImage bi, File f, float quality) throws IOException {
+		SaveService.writeImage(bi, f, "jpg", new SaveService.Settings(quality, 0), null);
+	}
+	
+	private static Future<File> submitEncode(final BufferedImage bi, final float quality) {
+		return encodePool.submit(new Callable<File>() {
+			public File call() throws IOException {
+				File tmp = File.createTempFile("ssmv", ".jpg");
+				try {
+					writeJPEG(bi, tmp, quality);
+				} catch (IOException e) {
+					tmp.delete();
+					throw e;
+				} catch (RuntimeException e) {
+					tmp.delete();
+					throw e;
+				}
+				return tmp;
+			}
+		});
+	}
+	
+	private static File join(Future<File> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Encoding was interrupted!");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if(cause instanceof Error)
+				throw (Error)cause;
+			throw new IOException(cause);
+		}
+	}
+	
+	/**
+	 * Writes the pair as MPO, left eye first.
+	 * 
+	 * @param quality JPEG quality from 0.0 to 1.0
+	 */
+	public static void write(BufferedImage left, BufferedImage right, File out, float quality) throws IOException {
+		Future<File> lf = submitEncode(left, quality);
+		Future<File> rf = submitEncode(right, quality);
+		
+		File leftJPEG = null;
+		File rightJPEG = null;
+		try {
+			leftJPEG = join(lf);
+			rightJPEG = join(rf);
+			
+			writeMPO(leftJPEG, rightJPEG, out);
+		} finally {
+			// the other encoder may still be running if one failed
+			if(leftJPEG == null)
+				deleteWhenDone(lf);
+			else
+				leftJPEG.delete();
+			
+			if(rightJPEG == null)
+				deleteWhenDone(rf);
+			else
+				rightJPEG.delete();
+		}
+	}
+	
+	private static void deleteWhenDone(final Future<File> f) {
+		encodePool.execute(new Runnable() {
+			public void run() {
+				try {
+					f.get().delete();
+				} catch (Exception e) {
+				}
+			}
+		});
+	}
+	
+	/**
+	 * @return the position after SOI and an optional JFIF APP0 segment
+	 */
+	private static int bodyStart(FileChannel fc) throws IOException {
+		ByteBuffer head = ByteBuffer.allocate(6);
+		fc.read(head, 0);
+		head.flip();
+		
+		if(head.remaining() < 6 || (head.get(0) & 0xFF) != 0xFF || (head.get(1) & 0xFF) != MPOIndex.MARKER_SOI)
+			throw new IOException("Encoder did not write a JPEG!");
+		
+		if((head.get(2) & 0xFF) == 0xFF && (head.get(3) & 0xFF) == MARKER_APP0)
+			return 4 + (head.getShort(4) & 0xFFFF);
+		
+		return 2;
+	}
+	
+	private static void writeMPO(File first, File second, File out) throws IOException {
+		FileInputStream fis1 = new FileInputStream(first);
+		FileInputStream fis2 = new FileInputStream(second);
+		try {
+			FileChannel in1 = fis1.getChannel();
+			FileChannel in2 = fis2.getChannel();
+			
+			long body1 = bodyStart(in1);
+			long body2 = bodyStart(in2);
+			
+			long length1 = in1.size() - body1;
+			long length2 = in2.size() - body2;
+			
+			// the segment size does not depend on the values in it
+			long size1 = 2 + createMPFSegment(1, 0, 0, 0).remaining() + length1;
+			
+			ByteBuffer app2 = createMPFSegment(2, 0, 0, 0);
+			long size2 = 2 + app2.remaining() + length2;
+			
+			if(size1 + size2 > 0xFFFFFFFFL)
+				throw new IOException("Images are too large for MPO!");
+			
+			// offsets are relative to the byte order field in the MPF segment of the first image
+			// (SOI, APP2 marker and length, 'MPF\0')
+			long offset2 = size1 - 10;
+			
+			ByteBuffer app1 = createMPFSegment(1, (int)size1, (int)size2, (int)offset2);
+			
+			FileOutputStream fos = new FileOutputStream(out);
+			try {
+				FileChannel oc = fos.getChannel();
+				
+				writeFully(oc, soi());
+				writeFully(oc, app1);
+				transferFully(in1, body1, length1, oc);
+				
+				writeFully(oc, soi());
+				writeFully(oc, app2);
+				transferFully(in2, body2, length2, oc);
+			} finally {
+				fos.close();
+			}
+		} finally {
+			fis1.close();
+			fis2.close();
+		}
+	}
+	
+	private static ByteBuffer soi() {
+		ByteBuffer b = ByteBuffer.allocate(2);
+		b.put((byte)0xFF).put((byte)MPOIndex.MARKER_SOI);
+		b.flip();
+		return b;
+	}
+	
+	private static void writeFully(FileChannel fc, ByteBuffer b) throws IOException {
+		while(b.hasRemaining())
+			fc.write(b);
+	}
+	
+	private static void transferFully(FileChannel in, long position, long count, FileChannel out) throws IOException {
+		while(count > 0) {
+			long n = in.transferTo(position, count, out);
+			if(n <= 0)
+				throw new IOException("Could not copy image data!");
+			position += n;
+			count -= n;
+		}
+	}
+	
+	/**
+	 * Creates the APP2 MPF segment for the image with the given number (starting at 1).
+	 * The first image gets the MP Index IFD with the entries for both images followed by
+	 * its MP Attribute IFD, the second image only an MP Attribute IFD.
+	 */
+	private static ByteBuffer createMPFSegment(int individual, int size1, int size2, int offset2) {
+		boolean index = individual == 1;
+		
+		// all sizes in bytes, offsets relative to the byte order field
+		int indexTags = 3;
+		int indexIFDSize = 2 + indexTags * 12 + 4;
+		int entriesSize = 2 * 16;
+		int attrTags = 3;
+		int attrIFDSize = 2 + attrTags * 12 + 4;
+		
+		int tiffSize = 8 + (index ? indexIFDSize + entriesSize : 0) + attrIFDSize;
+		int segmentLength = 2 + 4 + tiffSize;
+		
+		ByteBuffer b = ByteBuffer.allocate(2 + segmentLength).order(ByteOrder.BIG_ENDIAN);
+		b.put((byte)0xFF).put((byte)MPOIndex.MARKER_APP2);
+		b.putShort((short)segmentLength);
+		b.put((byte)'M').put((byte)'P').put((byte)'F').put((byte)0);
+		
+		int tiff = b.position();
+		b.put((byte)'M').put((byte)'M');
+		b.putShort((short)0x002A);
+		b.putInt(8);
+		
+		int attrIFD = 8;
+		
+		if(index) {
+			int entries = 8 + indexIFDSize;
+			attrIFD = entries + entriesSize;
+			
+			b.putShort((short)indexTags);
+			putVersionTag(b);
+			putTag(b, TAG_NUMBER_OF_IMAGES, TYPE_LONG, 1, 2);
+			putTag(b, TAG_MP_ENTRY, TYPE_UNDEFINED, entriesSize, entries);
+			b.putInt(attrIFD);
+			
+			// first image: representative baseline image of a multi-view disparity set
+			b.putInt(FLAG_REPRESENTATIVE | MPOIndex.TYPE_DISPARITY);
+			b.putInt(size1);
+			b.putInt(0);
+			b.putShort((short)0).putShort((short)0);
+			
+			b.putInt(MPOIndex.TYPE_DISPARITY);
+			b.putInt(size2);
+			b.putInt(offset2);
+			b.putShort((short)0).putShort((short)0);
+		}
+		
+		assert b.position() - tiff == attrIFD;
+		
+		b.putShort((short)attrTags);
+		putVersionTag(b);
+		putTag(b, TAG_INDIVIDUAL_NUM, TYPE_LONG, 1, individual);
+		putTag(b, TAG_BASE_VIEWPOINT_NUM, TYPE_LONG, 1, 1);
+		b.putInt(0);
+		
+		b.flip();
+		return b;
+	}
+	
+	private static void putTag(ByteBuffer b, int tag, int type, int count, int value) {
+		b.putShort((short)tag);
+		b.putShort((short)type);
+		b.putInt(count);
+		b.putInt(value);
+	}
+	
+	private static void putVersionTag(ByteBuffer b) {
+		b.putShort((short)TAG_MPF_VERSION);
+		b.putShort((short)TYPE_UNDEFINED);
+		b.putInt(4);
+		b.put((byte)'0').put((byte)'1').put((byte)'0').put((byte)'0');
+	}
+}
@@ -0,0 +1,346 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decoded stereo pairs of recently viewed files. The cache is bounded by the
+ * amount of pixel memory, the least recently used pairs are dropped first.
+ * Files can be decoded ahead of time on a background thread.
+ */
+public class PairCache {
+	
+	private static class Entry {
+		private final StereoPair pair;
+		private final Dimension maxSize;
+		private final long lastModified;
+		private final SideBySideLayout layout;
+		private final long bytes;
+		
+		public Entry(StereoPair pair, Dimension maxSize, long lastModified, SideBySideLayout layout) {
+			this.pair = pair;
+			this.maxSize = maxSize;
+			this.lastModified = lastModified;
+			this.layout = layout;
+			this.bytes = 2L * 4L * pair.getWidth() * pair.getHeight();
+		}
+	}
+	
+	private static class Prefetch {
+		private final Future<StereoPair> future;
+		private final Dimension maxSize;
+		private final LoadTask task;
+		private final SideBySideLayout layout;
+		private volatile boolean started = false;
+		
+		public Prefetch(Future<StereoPair> future, Dimension maxSize, LoadTask task, SideBySideLayout layout) {
+			this.future = future;
+			this.maxSize = maxSize;
+			this.task = task;
+			this.layout = layout;
+		}
+		
+		public void cancel() {
+			task.cancel();
+			future.cancel(true);
+		}
+	}
+	
+	// a full decode of a larger pair would not leave enough of the heap for scaling and saving
+	private static final long maxFullBytes = Runtime.getRuntime().maxMemory() / 2;
+	
+	private final long maxBytes;
+	private long bytes = 0;
+	
+	// guarded by this
+	private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<File, Entry>(16, 0.75f, true);
+	private final Map<File, Prefetch> prefetches = new HashMap<File, Prefetch>();
+	private SideBySideLayout layout = SideBySideLayout.DEFAULT;
+	
+	private final ExecutorService prefetchPool = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SSMV-Prefetch");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}
+	});
+	
+	/**
+	 * @param maxBytes upper limit for the pixel data of all cached pairs
+	 */
+	public PairCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+	
+	public synchronized SideBySideLayout getLayout() {
+		return layout;
+	}
+	
+	/**
+	 * Sets the layout used to split side-by-side files. Pairs and prefetches
+	 * of side-by-side files split with another layout are dropped.
+	 */
+	public synchronized void setLayout(SideBySideLayout layout) {
+		if(this.layout == layout)
+			return;
+		this.layout = layout;
+		
+		Iterator<Prefetch> pi = prefetches.values().iterator();
+		while(pi.hasNext()) {
+			Prefetch p = pi.next();
+			if(p.layout != null) {
+				p.cancel();
+				pi.remove();
+			}
+		}
+		
+		Iterator<Entry> ei = entries.values().iterator();
+		while(ei.hasNext()) {
+			Entry e = ei.next();
+			if(e.layout != null) {
+				bytes -= e.bytes;
+				ei.remove();
+			}
+		}
+	}
+	
+	private SideBySideLayout layoutFor(boolean mpo) {
+		return mpo ? null : layout;
+	}
+	
+	private static File key(File f) {
+		return f.getAbsoluteFile();
+	}
+	
+	/**
+	 * A pair decoded for maxSize is good enough for any request that is not larger.
+	 * Null stands for full resolution.
+	 */
+	private static boolean covers(Dimension decoded, Dimension requested) {
+		if(decoded == null)
+			return true;
+		if(requested == null)
+			return false;
+		return decoded.width >= requested.width && decoded.height >= requested.height;
+	}
+	
+	/**
+	 * @return the cached pair for the file or null if there is none at the requested resolution
+	 */
+	public synchronized StereoPair get(File f, Dimension maxSize) {
+		File k = key(f);
+		Entry e = entries.get(k);
+		if(e == null)
+			return null;
+		
+		if(e.lastModified != f.lastModified() || (e.layout != null && e.layout != layout)) {
+			remove(k);
+			return null;
+		}
+		
+		return covers(e.maxSize, maxSize) ? e.pair : null;
+	}
+	
+	/**
+	 * @param layout the layout the pair was split with or null for MPO files
+	 */
+	public synchronized void put(File f, Dimension maxSize, StereoPair pair, SideBySideLayout layout) {
+		// split with a layout that is no longer selected
+		if(layout != null && layout != this.layout)
+			return;
+		
+		File k = key(f);
+		Entry old = entries.get(k);
+		
+		// a preview does not replace the full resolution images
+		if(old != null && old.lastModified == f.lastModified() && old.layout == layout && covers(old.maxSize, maxSize) && !covers(maxSize, old.maxSize))
+			return;
+		
+		remove(k);
+		
+		Entry e = new Entry(pair, maxSize, f.lastModified(), layout);
+		if(e.bytes > maxBytes)
+			return;
+		
+		entries.put(k, e);
+		bytes += e.bytes;
+		
+		Iterator<Map.Entry<File, Entry>> i = entries.entrySet().iterator();
+		while(bytes > maxBytes && i.hasNext()) {
+			Entry eldest = i.next().getValue();
+			if(eldest == e)
+				continue;
+			bytes -= eldest.bytes;
+			i.remove();
+		}
+	}
+	
+	private void remove(File k) {
+		Entry e = entries.remove(k);
+		if(e != null)
+			bytes -= e.bytes;
+	}
+	
+	public synchronized long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * Files that would take more than half of the heap at full resolution are loaded as tiled pairs.
+	 * The misalignment of MPO pairs is estimated right away, it is part of the cached pair.
+	 */
+	private StereoPair decode(File f, LoadTask task, Dimension maxSize, SideBySideLayout layout) throws IOException {
+		if(layout == null)
+			return StereoAligner.align(StereoLoader.loadMPO(f, task, maxSize, maxFullBytes));
+		
+		return StereoLoader.loadSideBySide(f, task, maxSize, layout, maxFullBytes);
+	}
+	
+	/**
+	 * Returns the pair from the cache, waits for a running prefetch of the file or decodes it.
+	 */
+	public StereoPair load(File f, boolean mpo, LoadTask task, Dimension maxSize) throws IOException {
+		Future<StereoPair> pending = null;
+		SideBySideLayout layout;
+		
+		synchronized (this) {
+			StereoPair pair = get(f, maxSize);
+			if(pair != null)
+				return pair;
+			
+			layout = layoutFor(mpo);
+			
+			Prefetch p = prefetches.get(key(f));
+			if(p != null) {
+				if(p.started && p.layout == layout && covers(p.maxSize, maxSize)) {
+					pending = p.future;
+				} else {
+					// still queued behind other files, faster to decode it right here
+					p.cancel();
+					prefetches.remove(key(f));
+				}
+			}
+		}
+		
+		if(pending != null) {
+			try {
+				return pending.get();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Loading was cancelled!");
+			} catch (ExecutionException e) {
+				// decode it again to report the error
+			} catch (CancellationException e) {
+				// replaced by a prefetch of other files
+			}
+		}
+		
+		task.checkCancelled();
+		
+		StereoPair pair = decode(f, task, maxSize, layout);
+		put(f, maxSize, pair, layout);
+		return pair;
+	}
+	
+	/**
+	 * Decodes the file in the background unless it is cached or already being decoded.
+	 */
+	public synchronized void prefetch(final File f, final boolean mpo, final Dimension maxSize) {
+		final File k = key(f);
+		
+		if(get(f, maxSize) != null)
+			return;
+		
+		final SideBySideLayout layout = layoutFor(mpo);
+		
+		Prefetch running = prefetches.get(k);
+		if(running != null) {
+			if(running.layout == layout && covers(running.maxSize, maxSize))
+				return;
+			running.cancel();
+		}
+		
+		final LoadTask task = new LoadTask(null);
+		final Prefetch[] self = new Prefetch [1];
+		
+		Future<StereoPair> future = prefetchPool.submit(new Callable<StereoPair>() {
+			public StereoPair call() throws IOException {
+				synchronized (PairCache.this) {
+					self[0].started = true;
+				}
+				try {
+					task.checkCancelled();
+					StereoPair pair = decode(f, task, maxSize, layout);
+					put(f, maxSize, pair, layout);
+					return pair;
+				} finally {
+					synchronized (PairCache.this) {
+						Prefetch p = prefetches.get(k);
+						if(p != null && p.task == task)
+							prefetches.remove(k);
+					}
+				}
+			}
+		});
+		
+		self[0] = new Prefetch(future, maxSize, task, layout);
+		prefetches.put(k, self[0]);
+	}
+	
+	/**
+	 * Cancels all prefetches of files that are not in the given collection
+	 */
+	public synchronized void retainPrefetches(Collection<File> files) {
+		Set<File> keep = new HashSet<File>();
+		for(File f : files)
+			keep.add(key(f));
+		
+		Iterator<Map.Entry<File, Prefetch>> i = prefetches.entrySet().iterator();
+		while(i.hasNext()) {
+			Map.Entry<File, Prefetch> e = i.next();
+			if(!keep.contains(e.getKey())) {
+				e.getValue().cancel();
+				i.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package ssmv;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the rows of an image into bands that are processed in parallel
+ * on a shared fork-join pool.
+ */
+public class RowBands extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	
+	public static interface Rows {
+		public void process(int y0, int y1);
+	}
+	
+	// smallest amount of pixels worth a task of its own
+	private static final int MIN_BAND_PIXELS = 1 << 15;
+	
+	private static final ForkJoinPool pool = new ForkJoinPool();
+	
+	private final Rows rows;
+	private final int y0;
+	private final int y1;
+	private final int grain;
+	
+	private RowBands(Rows rows, int y0, int y1, int grain) {
+		this.rows = rows;
+		this.y0 = y0;
+		this.y1 = y1;
+		this.grain = grain;
+	}
+	
+	@Override
+	protected void compute() {
+		if(y1 - y0 <= grain) {
+			rows.process(y0, y1);
+			return;
+		}
+		
+		int mid = (y0 + y1) >>> 1;
+		invokeAll(new RowBands(rows, y0, mid, grain), new RowBands(rows, mid, y1, grain));
+	}
+	
+	/**
+	 * Processes the rows 0 to height-1 of an image of the given width.
+	 * Returns when all rows are done.
+	 */
+	public static void run(int width, int height, Rows rows) {
+		int grain = Math.max(1, MIN_BAND_PIXELS / Math.max(1, width));
+		
+		if(height <= grain) {
+			rows.process(0, height);
+			return;
+		}
+		
+		RowBands task = new RowBands(rows, 0, height, grain);
+		
+		// nested calls fork into the pool they are already running in
+		if(inForkJoinPool())
+			task.invoke();
+		else
+			pool.invoke(task);
+	}
+	
+	/**
+	 * Runs the tasks in parallel on the shared pool and waits for all of them.
+	 */
+	public static void parallel(final Runnable... tasks) {
+		RecursiveAction all = new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected void compute() {
+				ForkJoinTask<?> [] forks = new ForkJoinTask<?> [tasks.length];
+				for(int i=0; i<tasks.length; i++)
+					forks[i] = ForkJoinTask.adapt(tasks[i]);
+				invokeAll(forks);
+			}
+		};
+		
+		if(inForkJoinPool())
+			all.invoke();
+		else
+			pool.invoke(all);
+	}
+}
@@ -22,6 +22,10 @@ SOFTWARE.
 
 package ssmv;
 
+import java.awt.AlphaComposite;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.EventQueue;
 import java.awt.Frame;
@@ -30,50 +34,79 @@ import java.awt.Graphics2D;
 import java.awt.GraphicsConfiguration;
 import java.awt.GraphicsDevice;
 import java.awt.MouseInfo;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
+import java.awt.geom.NoninvertibleTransformException;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.awt.image.BufferedImage;
-import java.awt.image.BufferedImageOp;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.prefs.Preferences;
 
-import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
 import javax.swing.ButtonGroup;
+import javax.swing.JButton;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.KeyStroke;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.filechooser.FileFilter;
 
 public class SSMV implements Runnable {
 
 	private static Preferences prefs = Preferences.userNodeForPackage(SSMV.class);
 	
-	public static enum StereoMode { Cross, Anaglyph, Wiggle };
+	public static enum StereoMode { Cross, Anaglyph, Wiggle, RowInterleaved, ColumnInterleaved, Checkerboard };
 	
 	public static final String SCross = "Cross";
 	public static final String SWiggle = "Wiggle";
 	public static final String SAnaglyph = "Anaglyph";
+	public static final String SRowInterleaved = "RowInterleaved";
+	public static final String SColumnInterleaved = "ColumnInterleaved";
+	public static final String SCheckerboard = "Checkerboard";
 	
 	public static String smToString(StereoMode sm) {
 		switch(sm) {
@@ -81,16 +114,67 @@ public class SSMV implements Runnable {
 			return SAnaglyph;
 		case Wiggle:
 			return SWiggle;
+		case RowInterleaved:
+			return SRowInterleaved;
+		case ColumnInterleaved:
+			return SColumnInterleaved;
+		case Checkerboard:
+			return SCheckerboard;
 		default:
 			return SCross;
 		}
 	}
 	
+	/**
+	 * @return the pixel pattern of an interleaved mode or null for the other modes
+	 */
+	public static InterleaveEngine.Pattern getInterleavePattern(StereoMode sm) {
+		switch(sm) {
+		case RowInterleaved:
+			return InterleaveEngine.Pattern.Rows;
+		case ColumnInterleaved:
+			return InterleaveEngine.Pattern.Columns;
+		case Checkerboard:
+			return InterleaveEngine.Pattern.Checkerboard;
+		default:
+			return null;
+		}
+	}
+	
+	public static enum AnaglyphMethod { Mask, Gray, HalfColor, Optimized, Dubois };
+	
+	private static final String [] anaglyphMethodNames = {
+		"Color mask",
+		"Gray",
+		"Half color",
+		"Optimized",
+		"Dubois"
+	};
+	
+	public static String amToString(AnaglyphMethod am) {
+		return am.name();
+	}
+	
+	public static AnaglyphMethod stringToAM(String s) {
+		for(AnaglyphMethod am : AnaglyphMethod.values()) {
+			if(am.name().toLowerCase().equals(s.toLowerCase()))
+				return am;
+		}
+		
+		return AnaglyphMethod.Mask;
+	}
+	
 	public static StereoMode stringToSM(String s) {
 		if(SAnaglyph.toLowerCase().equals(s.toLowerCase()))
 			return StereoMode.Anaglyph;
 		if(SWiggle.toLowerCase().equals(s.toLowerCase()))
 			return StereoMode.Wiggle;
+		if(SRowInterleaved.toLowerCase().equals(s.toLowerCase()))
+			return StereoMode.RowInterleaved;
+		if(SColumnInterleaved.toLowerCase().equals(s.toLowerCase()))
+			return StereoMode.ColumnInterleaved;
+		if(SCheckerboard.toLowerCase().equals(s.toLowerCase()))
+			return StereoMode.Checkerboard;
 		
 		return StereoMode.Cross;
 	}
@@ -100,16 +184,25 @@ public class SSMV implements Runnable {
 	public static final String prefVBorder = "vborder";
 
 	public static final String prefSwap = "swap";
+	public static final String prefAutoAlign = "autoalign";
 	public static final String prefHelpPoints = "helppoints";
 
 	public static final String prefResizeToWindow = "resize";
 	public static final String prefResizeOnlySmaller = "resizesmaller";
+	public static final String prefResizeQuality = "resizequality";
+	
+	public static final String prefFilmStrip = "filmstrip";
+	public static final String prefSideBySideLayout = "sbslayout";
+	
+	public static final String prefJPEGQuality = "jpegquality";
+	public static final String prefPNGCompression = "pngcompression";
 
 	public static final String prefMode = "mode";
 	
 	public static final String prefWiggleDelay = "wiggledelay";
 	
 	public static final String prefAnaglyphMask = "anaglyphmask";
+	public static final String prefAnaglyphMethod = "anaglyphmethod";
 	
 	public static final int prefHGapDefault = 10;
 	public static final int prefHBorderDefault = 10;
@@ -118,18 +211,29 @@ public class SSMV implements Runnable {
 	public static final int prefWiggleDelayDefault = 80;
 
 	public static final int prefAnaglyphMaskDefault = 0;
+	public static final String prefAnaglyphMethodDefault = "Mask";
 	
 	public static final boolean prefSwapDefault = false;
+	public static final boolean prefAutoAlignDefault = true;
 	public static final boolean prefHelpPointsDefault = true;
 	public static final boolean prefResizeToWindowDefault = false;
 	public static final boolean prefResizeOnlySmallerDefault = true;
+	public static final String prefResizeQualityDefault = "Progressive";
+	public static final boolean prefFilmStripDefault = true;
+	public static final String prefSideBySideLayoutDefault = SideBySideLayout.DEFAULT.name();
+	public static final int prefJPEGQualityDefault = 92;
+	public static final int prefPNGCompressionDefault = 4;
 	
 	public static final String prefModeDefault = SCross; 
 	
 	private static final String acAbout = "about";
 	private static final String acOpen = "open";
+	private static final String acCancelLoad = "cancelload";
+	private static final String acNext = "next";
+	private static final String acPrevious = "previous";
 	private static final String acExit = "exit";
 	private static final String acSwap = "swap";
+	private static final String acAutoAlign = "autoalign";
 	private static final String acHGap = "hgap";
 	private static final String acHelpPoints = "helppoints";
 	private static final String acVBorder = "vborder";
@@ -137,13 +241,27 @@ public class SSMV implements Runnable {
 	private static final String acSaveLeft = "saveleft";
 	private static final String acSaveRight = "saveright";
 	private static final String acSaveAnaglyph = "saveanaglyph";
+	private static final String acSaveInterleaved = "saveinterleaved";
+	private static final String acSaveMPO = "savempo";
+	private static final String acJPEGQuality = "jpegquality";
+	private static final String acPNGCompression = "pngcompression";
 	private static final String acCross = "modecross";
 	private static final String acAnaglyph = "modeanaglyph";
 	private static final String acAnaglyphMask = "modeanaglyphmask";
+	private static final String acAnaglyphMethod = "modeanaglyphmethod";
 	private static final String acWiggle = "modewiggle";
+	private static final String acRowInterleaved = "moderows";
+	private static final String acColumnInterleaved = "modecolumns";
+	private static final String acCheckerboard = "modecheckerboard";
 	private static final String acWiggleDelay = "wiggledelay";
 	private static final String acResizeToWindow = "resize";
 	private static final String acResizeOnlySmaller = "resizesmaller";
+	private static final String acResizeQuality = "resizequality";
+	private static final String acFilmStrip = "filmstrip";
+	private static final String acSideBySideLayout = "sbslayout";
+	private static final String acZoomFit = "zoomfit";
+	private static final String acZoomActual = "zoomactual";
+	private static final String acFullScreen = "fullscreen";
 	
 	private static final int [] anaglyphMasks = {
 		0xFF0000, // red
@@ -151,13 +269,22 @@ public class SSMV implements Runnable {
 		0x0000FF // blue
 	};
 	
-	private static final String [] anaglyphMaskNames = {
+	static final String [] anaglyphMaskNames = {
 		"red/cyan",
 		"green/magenta",
 		"blue/yellow"
 	};
 	
 	private static final String dAMIndex = "amindex";
+	private static final String dAMethod = "amethod";
+	private static final String dRQuality = "rquality";
+	private static final String dSBSLayout = "sbslayout";
+	
+	private static final String [] resizeQualityNames = {
+		"Fast",
+		"Progressive",
+		"High quality"
+	};
 	
 	private static final String about =
 			"SSMV - Super Simple MPO Viewer v1.0\n" +
@@ -184,6 +311,8 @@ public class SSMV implements Runnable {
 			"Your last option is viewing the images in anaglyph form where the left and right images are color-filtered. If you happen " +
 			"to have on of these red/cyan glasses lying around this might be worth a try (but this mode implies bad colors...).\n" +
 			"You can also choose between the three possible filter combinations or us swap to switch sides...\n" +
+			"For red/cyan glasses there are also gray, half color, optimized and Dubois anaglyphs that mix the colors " +
+			"of both images to reduce retinal rivalry (select 'Color mask' to use the filter combinations again).\n" +
 			"\n" +
 			"LICENSE (MIT)\n" +
 			"\n" +
@@ -209,41 +338,91 @@ public class SSMV implements Runnable {
 	private JFrame frame;
 	private JMenuBar menuBar;
 	private StereoPanel stereoPanel;
+	private FullScreenView fullScreen = null;
 	
 	private boolean resizeToWindow = prefs.getBoolean(prefResizeToWindow, prefResizeToWindowDefault);
 	private boolean resizeOnlySmaller = prefs.getBoolean(prefResizeOnlySmaller, prefResizeOnlySmallerDefault);
 	
-	private BufferedImage leftEyeImage = null;
-	private BufferedImage rightEyeImage = null;
-
-	private Object resizeLock = new Object();
+	// everything that is displayed, replaced as a whole on every change
+	private final AtomicReference<StereoSnapshot> snapshot = new AtomicReference<StereoSnapshot>(StereoSnapshot.empty(prefs.getBoolean(prefSwap, prefSwapDefault), prefs.getBoolean(prefAutoAlign, prefAutoAlignDefault)));
+	
+	private static final int resizeDebounceDelay = 150;
+	
+	// pixel memory for decoded pairs of recently viewed and prefetched files
+	private static final long pairCacheBytes = Math.min(Runtime.getRuntime().maxMemory() / 3, 1L << 30);
+	
+	private final PairCache pairCache = new PairCache(pairCacheBytes);
+	
+	// mip levels and scaled sizes of the displayed pair
+	private static final long pyramidBytes = Math.min(Runtime.getRuntime().maxMemory() / 8, 256L << 20);
+	
+	// decoded parts of images too large for the pair cache
+	private static final long tileCacheBytes = Math.min(Runtime.getRuntime().maxMemory() / 8, 128L << 20);
 	
-	private BufferedImage leftEyeImageResized = null;
-	private BufferedImage rightEyeImageResized = null;
+	private final TileCache tileCache = new TileCache(tileCacheBytes, new TileCache.Listener() {
+		public void tilesLoaded() {
+			stereoPanel.repaint();
+		}
+		
+		public void tilesFailed(TiledImage image, String message) {
+			StereoPair pair = getSnapshot().getPair();
+			if(pair == null || (pair.getLeftTiles() != image && pair.getRightTiles() != image))
+				return;
+			
+			JOptionPane.showMessageDialog(frame, "Parts of the image could not be decoded...\n" + message, "Read-Error!", JOptionPane.ERROR_MESSAGE);
+		}
+	});
 	
-	private boolean swap = prefs.getBoolean(prefSwap, prefSwapDefault);
+	private ImageScaler.Quality resizeQuality = ImageScaler.stringToQuality(prefs.get(prefResizeQuality, prefResizeQualityDefault));
 	
 	private JFileChooser openChooser;
 	private JFileChooser saveChooser;
 	
+	private FilmStrip filmStrip;
+	
+	private JPanel savePanel;
+	private JLabel saveLabel;
+	private JProgressBar saveProgress;
+	
+	private JPanel statusPanel;
+	private JLabel statusLabel;
+	private JProgressBar statusProgress;
+	
+	private StereoSnapshot getSnapshot() {
+		return snapshot.get();
+	}
+	
 	private boolean isSwap() {
-		return swap;
+		return getSnapshot().isSwap();
 	}
 	
 	private void setSwap(boolean swap) {
-		this.swap = swap;
+		StereoSnapshot s;
+		do {
+			s = snapshot.get();
+		} while(!snapshot.compareAndSet(s, s.withSwap(swap)));
 	}
 	
-	private BufferedImage getLeft() {
-		return swap ? rightEyeImageResized : leftEyeImageResized;
+	private boolean isAlign() {
+		return getSnapshot().isAlign();
 	}
-
-	private BufferedImage getRight() {
-		return swap ? leftEyeImageResized : rightEyeImageResized;
+	
+	private void setAlign(boolean align) {
+		StereoSnapshot s;
+		do {
+			s = snapshot.get();
+		} while(!snapshot.compareAndSet(s, s.withAlign(align)));
 	}
 	
+	private File loadedFile = null;
+	private boolean loadedMPO = false;
+	
+	// listing of the directory from the last navigation, taken when the file is loaded
+	private File listedDir = null;
+	private List<File> listedImages = null;
+	
 	private boolean validImage() {
-		return leftEyeImageResized != null;
+		return getSnapshot().isValid();
 	}
 	
 	private WindowAdapter windowListener = new WindowAdapter() {
@@ -256,111 +435,329 @@ public class SSMV implements Runnable {
 		}
 	};
 	
-	private static boolean isJPEGHeader(byte [] data, int offset) {
-		if(offset < 0)
-			return false;
-		
-		if( (offset+3) >= data.length)
-			return false;
+	private void setImages(StereoPair pair) {
+		StereoSnapshot s;
+		do {
+			s = snapshot.get();
+		} while(!snapshot.compareAndSet(s, s.withPair(pair)));
+		
+		// tiles of the previous pair keep its file mapped
+		if(pair != null && pair.isTiled())
+			tileCache.retain(pair.getLeftTiles(), pair.getRightTiles());
+		else
+			tileCache.retain();
 		
-		return (data[offset] == (byte)0xFF) && (data[offset+1] == (byte)0xD8);
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				stereoPanel.invalidateDisplayCache();
+				adjustImageAreaInFrame();
+			}
+		});
 	}
 	
-	private void loadMPO(InputStream is) throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		byte [] buffer = new byte [1024];
-		int r;
-		
-		while( (r = is.read(buffer)) > 0) {
-			baos.write(buffer, 0, r);
+	private class LoadWorker extends SwingWorker<StereoPair, Void> implements LoadTask.ProgressListener {
+		private final File file;
+		private final boolean mpo;
+		private final Dimension maxSize;
+		private final Runnable whenLoaded;
+		private final LoadTask task = new LoadTask(this);
+		
+		public LoadWorker(File file, boolean mpo, Dimension maxSize, Runnable whenLoaded) {
+			this.file = file;
+			this.mpo = mpo;
+			this.maxSize = maxSize;
+			this.whenLoaded = whenLoaded;
 		}
 		
-		byte [] imageData = baos.toByteArray();
-		
-		if(!isJPEGHeader(imageData, 0))
-			throw new IOException("File does not contain JPEG data!");
-		
-		ByteArrayInputStream bais = new ByteArrayInputStream(imageData);
-		int size = imageData.length;
+		public File getFile() {
+			return file;
+		}
 		
-		BufferedImage fi = ImageIO.read(bais);
-		if(fi == null)
-			throw new IOException("No image found!");
-		int firstSize = size - bais.available();
+		public boolean isFullResolution() {
+			return maxSize == null;
+		}
 		
-		int secondOffset = firstSize;
+		public void progress(int percent) {
+			setProgress(Math.max(0, Math.min(100, percent)));
+		}
 		
-		while( (secondOffset > 0) && !isJPEGHeader(imageData, secondOffset) )
-			secondOffset--;
-
-		if(secondOffset==0) {
-			secondOffset = firstSize+1;
-			while((secondOffset < imageData.length) && !isJPEGHeader(imageData, secondOffset))
-				secondOffset++;
+		public void abort() {
+			task.cancel();
+			cancel(true);
 		}
 		
-		if(secondOffset >= imageData.length)
-			throw new IOException("No second image found!");
+		@Override
+		protected StereoPair doInBackground() throws Exception {
+			return pairCache.load(file, mpo, task, maxSize);
+		}
 		
-		bais.reset();
-		bais.skip(secondOffset);
+		@Override
+		protected void done() {
+			// superseded by another file or cancelled by the user
+			if(loadWorker != this)
+				return;
+			
+			loadWorker = null;
+			showLoadProgress(null);
+			
+			if(isCancelled() || task.isCancelled())
+				return;
+			
+			try {
+				StereoPair pair = get();
+				
+				if(!file.equals(loadedFile))
+					stereoPanel.resetZoom();
+				
+				setImages(pair);
+				
+				if(fullScreen != null)
+					fullScreen.setPair(pair, isSwap(), isAlign());
+				loadedFile = file;
+				loadedMPO = mpo;
+				frame.setTitle("SSMV - " + file.getName());
+				
+				List<File> images = takeListing(file.getAbsoluteFile().getParentFile());
+				prefetchNeighbours(file, images);
+				updateFilmStrip(file, images);
+				
+				if(whenLoaded != null)
+					whenLoaded.run();
+			} catch (InterruptedException e) {
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if(cause instanceof FileNotFoundException) {
+					JOptionPane.showMessageDialog(frame, "The file you selected was not found...", "File not found!", JOptionPane.ERROR_MESSAGE);
+				} else if(cause instanceof InterruptedIOException) {
+				} else if(cause instanceof IOException) {
+					JOptionPane.showMessageDialog(frame, "There was an error while reading the file...\n" + cause.getMessage(), "Read-Error!", JOptionPane.ERROR_MESSAGE);
+				} else if(cause instanceof OutOfMemoryError) {
+					JOptionPane.showMessageDialog(frame, "There is not enough memory to load this file...", "Read-Error!", JOptionPane.ERROR_MESSAGE);
+				} else {
+					JOptionPane.showMessageDialog(frame, "There was an error while reading the file...\n" + cause, "Read-Error!", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}
+	}
+	
+	private LoadWorker loadWorker = null;
+	
+	private PropertyChangeListener loadProgressListener = new PropertyChangeListener() {
+		public void propertyChange(PropertyChangeEvent evt) {
+			if(evt.getSource() == loadWorker && "progress".equals(evt.getPropertyName())) {
+				statusProgress.setValue((Integer)evt.getNewValue());
+			}
+		}
+	};
+	
+	/**
+	 * With 'Resize to Window' the images only need to be decoded at the resolution
+	 * of the largest possible image area. Images larger than that are subsampled
+	 * while decoding.
+	 */
+	private Dimension getPreviewSize() {
+		if(!resizeToWindow)
+			return null;
+		
+		Rectangle screen = frame.getGraphicsConfiguration().getBounds();
+		Dimension panel = stereoPanel.getSize();
+		Dimension current = stereoPanel.getMaxImageSize();
+		
+		int w = Math.max(screen.width, panel.width) - 2 * stereoPanel.getHBorder();
+		int h = Math.max(screen.height, panel.height) - 2 * stereoPanel.getVBorder();
+		
+		if(current != null) {
+			w = Math.max(w, current.width);
+			h = Math.max(h, current.height);
+		}
 		
-		BufferedImage si = ImageIO.read(bais);
-		if(si == null)
-			throw new IOException("File only contains one image...");
+		return new Dimension(Math.max(1, w), Math.max(1, h));
+	}
+	
+	/**
+	 * Makes sure the full resolution images are loaded before running the given action.
+	 * 
+	 * @param then runs on the EDT when the images are available, may be null
+	 */
+	private void ensureFullResolution(Runnable then) {
+		StereoPair loadedPair = getSnapshot().getPair();
+		if(loadedPair == null || !loadedPair.isPreview()) {
+			if(then != null)
+				then.run();
+			return;
+		}
 		
-		if(fi.getWidth() != si.getWidth() || fi.getHeight() != si.getHeight())
-			throw new IOException("The two images differ in size!");
+		if(then == null && loadWorker != null && loadWorker.isFullResolution() && loadWorker.getFile().equals(loadedFile))
+			return;
 		
-		synchronized (resizeLock) {
-			leftEyeImage = fi;
-			rightEyeImage = si;
-			
-			leftEyeImageResized = leftEyeImage;
-			rightEyeImageResized = rightEyeImage;
+		startLoading(loadedFile, loadedMPO, null, then);
+	}
+	
+	private void startLoading(File f, boolean mpo) {
+		startLoading(f, mpo, getPreviewSize(), null);
+	}
+	
+	private void startLoading(File f, boolean mpo, Dimension maxSize, Runnable whenLoaded) {
+		// a new file supersedes the one currently loading
+		if(loadWorker != null)
+			loadWorker.abort();
+		
+		loadWorker = new LoadWorker(f, mpo, maxSize, whenLoaded);
+		loadWorker.addPropertyChangeListener(loadProgressListener);
+		showLoadProgress(f);
+		loadWorker.execute();
+	}
+	
+	static boolean isMPOFile(File f) {
+		return getExt(f.getName()).toLowerCase().equals("mpo");
+	}
+	
+	/**
+	 * @return the files in the directory that can be viewed, sorted by name
+	 */
+	private List<File> listImages(File dir) {
+		File [] files = dir.listFiles();
+		if(files == null)
+			return Collections.emptyList();
+		
+		List<File> images = new ArrayList<File>();
+		for(File f : files) {
+			if(f.isFile() && (isMPOFile(f) || FileFilterSideBySide.accept(f)))
+				images.add(f);
 		}
 		
-		EventQueue.invokeLater(new Runnable() {
-			public void run() {
-				adjustImageAreaInFrame();
+		Collections.sort(images, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return a.getName().compareToIgnoreCase(b.getName());
 			}
 		});
+		
+		return images;
 	}
 	
-	private void loadSideBySideImage(InputStream is) throws IOException {
-		BufferedImage bi = ImageIO.read(is);
-		
-		int w = bi.getWidth();
-		if(w == 1)
-			throw new IOException("Image is only one pixel wide! Can't use this...");
-		
-		int ih = bi.getHeight();
-		int iw = w / 2;
+	/**
+	 * @return the listing of the last navigation if it was of this directory, otherwise a new one
+	 */
+	private List<File> takeListing(File dir) {
+		List<File> images = dir.equals(listedDir) ? listedImages : listImages(dir);
+		listedDir = null;
+		listedImages = null;
+		return images;
+	}
+	
+	/**
+	 * Opens the next (step 1) or previous (step -1) file in the directory of the current one.
+	 */
+	private void navigate(int step) {
+		// while flipping quickly the file that is still loading is the current one
+		File current = loadWorker != null ? loadWorker.getFile() : loadedFile;
+		if(current == null)
+			return;
+		
+		current = current.getAbsoluteFile();
+		List<File> images = listImages(current.getParentFile());
+		// the film strip and the prefetch of the loaded file use the same listing
+		listedDir = current.getParentFile();
+		listedImages = images;
+		
+		int index = images.indexOf(current);
+		int next = index + step;
+		
+		if(index < 0 || next < 0 || next >= images.size())
+			return;
+		
+		File f = images.get(next);
+		startLoading(f, isMPOFile(f));
+	}
+	
+	/**
+	 * Presents the images on the screen of the main window until Escape is pressed
+	 */
+	private void showFullScreen() {
+		if(fullScreen != null)
+			return;
+		
+		fullScreen = new FullScreenView(frame.getGraphicsConfiguration().getDevice(), new FullScreenView.Listener() {
+			public void navigate(int step) {
+				SSMV.this.navigate(step);
+			}
+			
+			public void closed() {
+				fullScreen = null;
+				frame.toFront();
+			}
+		}, stereoPanel.getStereoMode(), stereoPanel.getAnaglyphMethod(), stereoPanel.getAnaglyphMaskIndex(), stereoPanel.getWiggleDelay(), resizeQuality);
 		
-		boolean withAlpha = hasTransparency(bi);
+		fullScreen.show();
 		
-		BufferedImage fi = new BufferedImage(iw, ih, withAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
-		BufferedImage si = new BufferedImage(iw, ih, withAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		StereoSnapshot snap = getSnapshot();
+		if(snap.isValid())
+			fullScreen.setPair(snap.getPair(), isSwap(), isAlign());
+	}
+	
+	private void updateFilmStrip(File f) {
+		if(filmStrip.isVisible())
+			updateFilmStrip(f, listImages(f.getAbsoluteFile().getParentFile()));
+	}
+	
+	/**
+	 * @param images the listing of the directory of the file
+	 */
+	private void updateFilmStrip(File f, List<File> images) {
+		if(!filmStrip.isVisible())
+			return;
+		
+		f = f.getAbsoluteFile();
+		filmStrip.show(f.getParentFile(), images, f);
+	}
+	
+	/**
+	 * Decodes the files around the loaded one in the background, the next ones first.
+	 * 
+	 * @param images the listing of the directory of the file
+	 */
+	private void prefetchNeighbours(File f, List<File> images) {
+		f = f.getAbsoluteFile();
+		int index = images.indexOf(f);
+		if(index < 0)
+			return;
+		
+		List<File> neighbours = new ArrayList<File>();
+		for(int offset : Arrays.asList(1, -1, 2)) {
+			int i = index + offset;
+			if(i >= 0 && i < images.size())
+				neighbours.add(images.get(i));
+		}
 		
-		fi.createGraphics().drawImage(bi.getSubimage((w+1)/2, 0, iw, ih), null, 0,0);
-		si.createGraphics().drawImage(bi.getSubimage(0, 0, iw, ih), null, 0,0);
+		pairCache.retainPrefetches(neighbours);
 		
-		synchronized (resizeLock) {
-			leftEyeImage = fi;
-			rightEyeImage = si;
-			
-			leftEyeImageResized = leftEyeImage;
-			rightEyeImageResized = rightEyeImage;
+		Dimension maxSize = getPreviewSize();
+		for(File n : neighbours)
+			pairCache.prefetch(n, isMPOFile(n), maxSize);
+	}
+	
+	private void cancelLoading() {
+		if(loadWorker != null) {
+			loadWorker.abort();
+			loadWorker = null;
+			showLoadProgress(null);
 		}
-		
-		EventQueue.invokeLater(new Runnable() {
-			public void run() {
-				adjustImageAreaInFrame();
-			}
-		});
 	}
 	
-	private void saveImage(BufferedImage bi, String dialogTitle) {
+	private void showLoadProgress(File f) {
+		if(f == null) {
+			statusPanel.setVisible(false);
+		} else {
+			statusLabel.setText("Loading " + f.getName() + "...");
+			statusProgress.setValue(0);
+			statusPanel.setVisible(true);
+		}
+	}
+	
+	/**
+	 * Asks for the file name and queues the save, the image is created while saving
+	 */
+	private void saveImage(Callable<BufferedImage> image, String dialogTitle) {
 		if(saveChooser == null) {
 			if(openChooser == null) {
 				saveChooser = new JFileChooser();
@@ -390,20 +787,77 @@ public class SSMV implements Runnable {
 					}
 				}
 
-				try {
-					FileOutputStream fos = new FileOutputStream(f);
-					if(!ImageIO.write(bi, ext, fos)) {
-						canLeave = false;
-						JOptionPane.showMessageDialog(frame, "Extension '" + ext + "' is not supported!", "Unknown format!", JOptionPane.ERROR_MESSAGE);
-						continue;
-					}
-				} catch(Exception e) {
-					JOptionPane.showMessageDialog(frame, "There was an error while saving the image....", "Error", JOptionPane.ERROR_MESSAGE);
+				if(!SaveService.canWrite(ext)) {
+					canLeave = false;
+					JOptionPane.showMessageDialog(frame, "Extension '" + ext + "' is not supported!", "Unknown format!", JOptionPane.ERROR_MESSAGE);
+					continue;
 				}
+				
+				saveService.submitImage(f, image, getSaveSettings());
 			}
 		}
 	}
 	
+	private void saveMPO(final StereoSnapshot snap) {
+		if(saveChooser == null) {
+			if(openChooser == null) {
+				saveChooser = new JFileChooser();
+			} else {
+				saveChooser = new JFileChooser(openChooser.getCurrentDirectory());
+			}
+		}
+		saveChooser.setDialogTitle("Save as MPO...");
+		
+		if(saveChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION)
+			return;
+		
+		File f = saveChooser.getSelectedFile();
+		if(!isMPOFile(f))
+			f = new File(f.getPath() + ".mpo");
+		
+		if(f.exists()) {
+			if(JOptionPane.showConfirmDialog(frame, "File '" + f.getName() + "' already exists. Overwrite ?") != JOptionPane.OK_OPTION)
+				return;
+		}
+		
+		final float quality = getSaveSettings().getJPEGQuality();
+		saveService.submit(f, new SaveService.Writer() {
+			public void write(File tmp, SaveService.Progress progress) throws IOException {
+				progress.progress(-1);
+				MPOWriter.write(snap.createLeftAligned(), snap.createRightAligned(), tmp, quality);
+			}
+		});
+	}
+	
+	private SaveService.Settings getSaveSettings() {
+		return new SaveService.Settings(prefs.getInt(prefJPEGQuality, prefJPEGQualityDefault) / 100f, prefs.getInt(prefPNGCompression, prefPNGCompressionDefault));
+	}
+	
+	private SaveService saveService = new SaveService(new SaveService.Listener() {
+		public void saveStarted(File f, int queued) {
+			saveLabel.setText("Saving " + f.getName() + (queued > 1 ? " (" + (queued - 1) + " more queued)" : "") + "...");
+			saveProgress.setIndeterminate(false);
+			saveProgress.setValue(0);
+			savePanel.setVisible(true);
+		}
+		
+		public void saveProgress(File f, int percent) {
+			saveProgress.setIndeterminate(percent < 0);
+			if(percent >= 0)
+				saveProgress.setValue(percent);
+		}
+		
+		public void saveFinished(File f, Throwable error, int queued) {
+			if(queued == 0)
+				savePanel.setVisible(false);
+			
+			if(error != null) {
+				String message = error instanceof OutOfMemoryError ? "There is not enough memory to save the image..." : "There was an error while saving '" + f.getName() + "'...\n" + error.getMessage();
+				JOptionPane.showMessageDialog(frame, message, "Error", JOptionPane.ERROR_MESSAGE);
+			}
+		}
+	});
+	
 	private AbstractAction fileAction = new AbstractAction("File") {
 		private static final long serialVersionUID = 1L;
 
@@ -411,40 +865,111 @@ public class SSMV implements Runnable {
 		public void actionPerformed(ActionEvent e) {
 			if(acOpen.equals(e.getActionCommand())) {
 				if(openChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
-					try {
-						File infilef = openChooser.getSelectedFile();
-						FileInputStream fis = new FileInputStream(openChooser.getSelectedFile());
-						
-						if(openChooser.getFileFilter() == FileFilterMPO || getExt(infilef.getName()).toLowerCase().equals("mpo")) {
-							loadMPO(fis);
-						} else {
-							loadSideBySideImage(fis);
-						}
-						
-						frame.setTitle("SSMV - " + openChooser.getSelectedFile().getName());
-					} catch (FileNotFoundException fnfe) {
-						JOptionPane.showMessageDialog(frame, "The file you selected was not found...", "File not found!", JOptionPane.ERROR_MESSAGE);
-					} catch (IOException ioe) {
-						JOptionPane.showMessageDialog(frame, "There was an error while reading the file...\n" + ioe.getMessage(), "Read-Error!", JOptionPane.ERROR_MESSAGE);
-					}
+					File infilef = openChooser.getSelectedFile();
+					
+					startLoading(infilef, openChooser.getFileFilter() == FileFilterMPO || getExt(infilef.getName()).toLowerCase().equals("mpo"));
 				}
 			}
+			if(acCancelLoad.equals(e.getActionCommand())) {
+				cancelLoading();
+			}
+			if(acNext.equals(e.getActionCommand())) {
+				navigate(1);
+			}
+			if(acPrevious.equals(e.getActionCommand())) {
+				navigate(-1);
+			}
 			if(acExit.equals(e.getActionCommand())) {
 				frame.dispatchEvent(new WindowEvent(frame, WindowEvent.WINDOW_CLOSING));
 			}
+			// images are saved in full resolution, even if only a preview is shown or the pair is tiled, and aligned like they are shown
 			if(acSaveLeft.equals(e.getActionCommand())) {
 				if(validImage()) {
-					saveImage(getRight(), "Save image on the left as..."); // right eye image is on the left
+					ensureFullResolution(new Runnable() {
+						public void run() {
+							final StereoSnapshot snap = getSnapshot();
+							saveImage(new Callable<BufferedImage>() {
+								public BufferedImage call() throws IOException {
+									return snap.createRightAligned(); // right eye image is on the left
+								}
+							}, "Save image on the left as...");
+						}
+					});
 				}
 			}
 			if(acSaveRight.equals(e.getActionCommand())) {
 				if(validImage()) {
-					saveImage(getLeft(), "Save image on the right as...");  // left eye image is on the right
+					ensureFullResolution(new Runnable() {
+						public void run() {
+							final StereoSnapshot snap = getSnapshot();
+							saveImage(new Callable<BufferedImage>() {
+								public BufferedImage call() throws IOException {
+									return snap.createLeftAligned(); // left eye image is on the right
+								}
+							}, "Save image on the right as...");
+						}
+					});
 				}
 			}
 			if(acSaveAnaglyph.equals(e.getActionCommand())) {
 				if(validImage()) {
-					saveImage(stereoPanel.getAnaglyphImage(), "Save anaglyph image..."); 
+					ensureFullResolution(new Runnable() {
+						public void run() {
+							final StereoSnapshot snap = getSnapshot();
+							final AnaglyphMethod method = stereoPanel.getAnaglyphMethod();
+							final int maskIndex = stereoPanel.getAnaglyphMaskIndex();
+							saveImage(new Callable<BufferedImage>() {
+								public BufferedImage call() throws IOException {
+									return snap.createCombined(new StereoSnapshot.Combination() {
+										public BufferedImage combine(BufferedImage left, BufferedImage right, int y) {
+											return createAnaglyphImage(left, right, method, maskIndex, null);
+										}
+									});
+								}
+							}, "Save anaglyph image...");
+						}
+					});
+				}
+			}
+			// the left eye gets the first row/column, as if the image was shown at the top left of the display
+			if(acSaveInterleaved.equals(e.getActionCommand())) {
+				if(validImage()) {
+					ensureFullResolution(new Runnable() {
+						public void run() {
+							final StereoSnapshot snap = getSnapshot();
+							InterleaveEngine.Pattern p = getInterleavePattern(stereoPanel.getStereoMode());
+							final InterleaveEngine.Pattern pattern = p != null ? p : InterleaveEngine.Pattern.Rows;
+							saveImage(new Callable<BufferedImage>() {
+								public BufferedImage call() throws IOException {
+									return snap.createCombined(new StereoSnapshot.Combination() {
+										public BufferedImage combine(BufferedImage left, BufferedImage right, int y) {
+											// the parity of the rows stays the same for every band
+											return InterleaveEngine.interleave(left, right, pattern, 0, y, null);
+										}
+									});
+								}
+							}, "Save interleaved image...");
+						}
+					});
+				}
+			}
+			if(acJPEGQuality.equals(e.getActionCommand())) {
+				Integer quality = getNumber("JPEG quality (1-100)", prefs.getInt(prefJPEGQuality, prefJPEGQualityDefault), "Invalid JPEG quality!");
+				if(quality != null)
+					prefs.putInt(prefJPEGQuality, Math.max(1, Math.min(100, quality)));
+			}
+			if(acPNGCompression.equals(e.getActionCommand())) {
+				Integer level = getNumber("PNG compression level (0 = none, 9 = best)", prefs.getInt(prefPNGCompression, prefPNGCompressionDefault), "Invalid compression level!");
+				if(level != null)
+					prefs.putInt(prefPNGCompression, Math.min(9, level));
+			}
+			if(acSaveMPO.equals(e.getActionCommand())) {
+				if(validImage()) {
+					ensureFullResolution(new Runnable() {
+						public void run() {
+							saveMPO(getSnapshot());
+						}
+					});
 				}
 			}
 		}
@@ -486,6 +1011,12 @@ public class SSMV implements Runnable {
 				prefs.putBoolean(prefSwap, isSwap());
 				stereoPanel.repaint();
 			}
+			if(acAutoAlign.equals(e.getActionCommand())) {
+				JCheckBoxMenuItem jcbi = (JCheckBoxMenuItem)e.getSource();
+				setAlign(jcbi.isSelected());
+				prefs.putBoolean(prefAutoAlign, isAlign());
+				stereoPanel.repaint();
+			}
 			if(acCross.equals(e.getActionCommand())) {
 				stereoPanel.setStereoMode(StereoMode.Cross);
 				prefs.put(prefMode, smToString(stereoPanel.getStereoMode()));
@@ -501,6 +1032,21 @@ public class SSMV implements Runnable {
 				prefs.put(prefMode, smToString(stereoPanel.getStereoMode()));
 				stereoPanel.repaint();
 			}
+			if(acRowInterleaved.equals(e.getActionCommand())) {
+				stereoPanel.setStereoMode(StereoMode.RowInterleaved);
+				prefs.put(prefMode, smToString(stereoPanel.getStereoMode()));
+				stereoPanel.repaint();
+			}
+			if(acColumnInterleaved.equals(e.getActionCommand())) {
+				stereoPanel.setStereoMode(StereoMode.ColumnInterleaved);
+				prefs.put(prefMode, smToString(stereoPanel.getStereoMode()));
+				stereoPanel.repaint();
+			}
+			if(acCheckerboard.equals(e.getActionCommand())) {
+				stereoPanel.setStereoMode(StereoMode.Checkerboard);
+				prefs.put(prefMode, smToString(stereoPanel.getStereoMode()));
+				stereoPanel.repaint();
+			}
 			if(acAnaglyphMask.equals(e.getActionCommand())) {
 				JMenuItem jmi = (JMenuItem)e.getSource();
 				Integer amindex = (Integer)jmi.getClientProperty(dAMIndex);
@@ -511,6 +1057,16 @@ public class SSMV implements Runnable {
 				prefs.putInt(prefAnaglyphMask, stereoPanel.getAnaglyphMaskIndex());
 				stereoPanel.repaint();
 			}
+			if(acAnaglyphMethod.equals(e.getActionCommand())) {
+				JMenuItem jmi = (JMenuItem)e.getSource();
+				AnaglyphMethod am = (AnaglyphMethod)jmi.getClientProperty(dAMethod);
+				if(am==null)
+					am = AnaglyphMethod.Mask;
+				
+				stereoPanel.setAnaglyphMethod(am);
+				prefs.put(prefAnaglyphMethod, amToString(stereoPanel.getAnaglyphMethod()));
+				stereoPanel.repaint();
+			}
 			if(acHelpPoints.equals(e.getActionCommand())) {
 				JCheckBoxMenuItem jcbi = (JCheckBoxMenuItem)e.getSource();
 				stereoPanel.setHelpPoints(jcbi.isSelected());
@@ -520,11 +1076,58 @@ public class SSMV implements Runnable {
 				JCheckBoxMenuItem jcbi = (JCheckBoxMenuItem)e.getSource();
 				resizeToWindow = jcbi.isSelected();
 				prefs.putBoolean(prefResizeToWindow, resizeToWindow);
+				
+				if(!resizeToWindow)
+					ensureFullResolution(null);
+				
+				resizeScheduler.schedule();
 			}
 			if(acResizeOnlySmaller.equals(e.getActionCommand())) {
 				JCheckBoxMenuItem jcbi = (JCheckBoxMenuItem)e.getSource();
 				resizeOnlySmaller = jcbi.isSelected();
 				prefs.putBoolean(prefResizeOnlySmaller, resizeOnlySmaller);
+				
+				resizeScheduler.schedule();
+			}
+			if(acResizeQuality.equals(e.getActionCommand())) {
+				JMenuItem jmi = (JMenuItem)e.getSource();
+				ImageScaler.Quality q = (ImageScaler.Quality)jmi.getClientProperty(dRQuality);
+				if(q != null && q != resizeQuality) {
+					resizeQuality = q;
+					prefs.put(prefResizeQuality, ImageScaler.qualityToString(resizeQuality));
+					
+					resizeScheduler.schedule();
+				}
+			}
+			if(acSideBySideLayout.equals(e.getActionCommand())) {
+				JMenuItem jmi = (JMenuItem)e.getSource();
+				SideBySideLayout layout = (SideBySideLayout)jmi.getClientProperty(dSBSLayout);
+				if(layout != null && layout != pairCache.getLayout()) {
+					pairCache.setLayout(layout);
+					prefs.put(prefSideBySideLayout, layout.name());
+					
+					if(loadedFile != null && !loadedMPO)
+						startLoading(loadedFile, false);
+				}
+			}
+			if(acFilmStrip.equals(e.getActionCommand())) {
+				JCheckBoxMenuItem jcbi = (JCheckBoxMenuItem)e.getSource();
+				filmStrip.setVisible(jcbi.isSelected());
+				prefs.putBoolean(prefFilmStrip, filmStrip.isVisible());
+				
+				if(loadedFile != null)
+					updateFilmStrip(loadedFile);
+				
+				frame.validate();
+			}
+			if(acZoomFit.equals(e.getActionCommand())) {
+				stereoPanel.resetZoom();
+			}
+			if(acFullScreen.equals(e.getActionCommand())) {
+				showFullScreen();
+			}
+			if(acZoomActual.equals(e.getActionCommand())) {
+				stereoPanel.setZoom(1.0, null);
 			}
 			if(acHGap.equals(e.getActionCommand())) {
 				int hgap = stereoPanel.getHGap();
@@ -615,104 +1218,209 @@ public class SSMV implements Runnable {
 			if(stereoPanel!=null)
 				stereoPanel.repaint();
 		}
+		
+		resizeScheduler.schedule();
 	}
 	
-	private static boolean hasTransparency(BufferedImage bi) {
+	static boolean hasTransparency(BufferedImage bi) {
 		return bi.getTransparency() != BufferedImage.OPAQUE;
 	}
 	
 	public static BufferedImage createAnaglyphImage(BufferedImage left, BufferedImage right, int leftMask, BufferedImage dst) {
-		int w = left.getWidth();
-		int h = left.getHeight();
-
-		if(dst == null || dst.getWidth() != w || dst.getHeight() != h || hasTransparency(left) != hasTransparency(dst)) {
-			dst = new BufferedImage(w, h, hasTransparency(left) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		return AnaglyphEngine.createMaskAnaglyph(left, right, leftMask, dst);
+	}
+	
+	public static BufferedImage createAnaglyphImage(BufferedImage left, BufferedImage right, AnaglyphMethod method, int maskIndex, BufferedImage dst) {
+		switch(method) {
+		case Gray:
+			return AnaglyphEngine.createMatrixAnaglyph(left, right, AnaglyphEngine.GRAY, dst);
+		case HalfColor:
+			return AnaglyphEngine.createMatrixAnaglyph(left, right, AnaglyphEngine.HALF_COLOR, dst);
+		case Optimized:
+			return AnaglyphEngine.createMatrixAnaglyph(left, right, AnaglyphEngine.OPTIMIZED, dst);
+		case Dubois:
+			return AnaglyphEngine.createMatrixAnaglyph(left, right, AnaglyphEngine.DUBOIS, dst);
+		default:
+			return createAnaglyphImage(left, right, anaglyphMasks[maskIndex], dst);
 		}
+	}
+	
+	/**
+	 * Checks if the loaded preview is too small to fill the given size
+	 */
+	private static boolean needsMoreResolution(StereoPair pair, Dimension bestSize, boolean resizeOnlySmaller) {
+		float scaleh = (float)bestSize.width / (float)pair.getSourceWidth();
+		float scalev = (float)bestSize.height / (float)pair.getSourceHeight();
+		
+		float scale = Math.min(scaleh, scalev);
+		if(resizeOnlySmaller)
+			scale = Math.min(scale, 1.0f);
+		
+		return (int)(pair.getSourceWidth() * scale) > pair.getWidth() + 1
+				|| (int)(pair.getSourceHeight() * scale) > pair.getHeight() + 1;
+	}
+	
+	/**
+	 * Rescales the images when the panel size, the images or the resize settings change.
+	 * Requests are debounced and a newer request cancels a rescale that is still running.
+	 * Nothing runs while the viewer is idle.
+	 */
+	private class ResizeScheduler implements ActionListener {
+		private final Timer debounce = new Timer(resizeDebounceDelay, this);
+		
+		private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SSMV-Resize");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		
+		// builds the mip levels of the loaded pair
+		private final ExecutorService pyramidExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SSMV-Pyramid");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		
+		private final AtomicInteger generation = new AtomicInteger();
+		private Future<?> running = null;
+		
+		// only accessed on the EDT
+		private ImagePyramid pyramid = null;
 		
-		int [] rgbdatal = new int [w * h];
-		left.getRGB(0, 0, w, h, rgbdatal, 0, w);
-		int [] rgbdatar = new int [w * h];
-		right.getRGB(0, 0, w, h, rgbdatar, 0, w);
+		// quality of the currently published images
+		private volatile ImageScaler.Quality scaledWith = null;
 		
-		int lmask = ((leftMask & 0x00FFFFFF) | 0xFF000000);
-		int rmask = ((~leftMask) & 0x00FFFFFF);
+		public ResizeScheduler() {
+			debounce.setRepeats(false);
+		}
 		
-		for(int i=0; i<rgbdatal.length; i++) {
-			rgbdatal[i] = (rgbdatal[i] & lmask) | (rgbdatar[i] & rmask);
+		private void cancelRunning() {
+			generation.incrementAndGet();
+			if(running != null) {
+				running.cancel(true);
+				running = null;
+			}
 		}
 		
-		dst.setRGB(0, 0, w, h, rgbdatal, 0, w);
+		/**
+		 * @return the mip levels of the pair or null if they are not (yet) available, only on the EDT
+		 */
+		public ImagePyramid getPyramid(StereoPair pair) {
+			if(pyramid == null || pyramid.getPair() != pair)
+				return null;
+			return pyramid;
+		}
 		
-		return dst;
-	}
-	
-	private class DynamicResizeThread extends Thread {
-		public DynamicResizeThread() {
-			setDaemon(true);
-			start();
+		/**
+		 * Must be called on the EDT
+		 */
+		public void schedule() {
+			cancelRunning();
+			debounce.restart();
 		}
 		
-		public void run() {
-			long lastResize = -1;
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			cancelRunning();
 			
-			while(isAlive()) {
-				Dimension bestSize;
+			if(!validImage())
+				return;
+			
+			if(!resizeToWindow) {
+				StereoSnapshot s;
+				do {
+					s = snapshot.get();
+					if(!s.isScaled())
+						return;
+				} while(!snapshot.compareAndSet(s, s.withScaled(s.getPair().getLeft(), s.getPair().getRight())));
 				
-				if(!resizeToWindow || !validImage() || (bestSize = stereoPanel.getMaxImageSize()) == null || (System.currentTimeMillis() - lastResize) < 500) {
-					
-					if(!resizeToWindow && validImage()) {
-						synchronized(resizeLock) {
-							if(leftEyeImage != leftEyeImageResized) {
-								leftEyeImageResized = leftEyeImage;
-								rightEyeImageResized = rightEyeImage;
-
-								stereoPanel.repaint();
-							}
-						}
-					}
-					
-					try {
-						sleep(100);
-					} catch (InterruptedException e) {
-					}
-					continue;
+				stereoPanel.repaint();
+				return;
+			}
+			
+			final Dimension bestSize = stereoPanel.getMaxImageSize();
+			if(bestSize.width <= 0 || bestSize.height <= 0)
+				return;
+			
+			final StereoPair pair = getSnapshot().getPair();
+			
+			if(pair.isPreview() && needsMoreResolution(pair, bestSize, resizeOnlySmaller))
+				ensureFullResolution(null);
+			
+			if(pyramid == null || pyramid.getPair() != pair) {
+				if(pyramid != null)
+					pyramid.cancel();
+				pyramid = new ImagePyramid(pair, pyramidBytes);
+				pyramid.build(pyramidExecutor);
+			}
+			final ImagePyramid levels = pyramid;
+			
+			final int gen = generation.get();
+			final ImageScaler.Quality quality = resizeQuality;
+			
+			running = executor.submit(new Runnable() {
+				public void run() {
+					rescale(gen, levels, bestSize, quality);
 				}
+			});
+		}
+		
+		private void rescale(final int gen, ImagePyramid levels, Dimension bestSize, ImageScaler.Quality quality) {
+			StereoPair pair = levels.getPair();
+			BufferedImage left = pair.getLeft();
+			BufferedImage right = pair.getRight();
+			
+			float scaleh = (float)bestSize.width / (float)left.getWidth();
+			float scalev = (float)bestSize.height / (float)left.getHeight();
+			
+			float scale = Math.min(scaleh, scalev);
+			
+			BufferedImage leftResized;
+			BufferedImage rightResized;
+			
+			if(scale < 1.0f || !resizeOnlySmaller) {
+				int sw = Math.max(1, (scale == scaleh) ? bestSize.width : (int)(left.getWidth() * scale));
+				int sh = Math.max(1, (scale == scalev) ? bestSize.height : (int)(left.getHeight() * scale));
 				
-				synchronized(resizeLock) {
-
-					float scaleh = (float)bestSize.width / (float)leftEyeImage.getWidth();
-					float scalev = (float)bestSize.height / (float)leftEyeImage.getHeight();
-					
-					float scale = Math.min(scaleh, scalev);
-					
-					if(scale < 1.0f || !resizeOnlySmaller) {
-
-						int sw = (scale == scaleh) ? bestSize.width : (int)(leftEyeImage.getWidth() * scale);
-						int sh = (scale == scalev) ? bestSize.height : (int)(leftEyeImage.getHeight() * scale);
-
-						if(leftEyeImageResized == null || leftEyeImageResized.getWidth() != sw || leftEyeImageResized.getHeight() != sh) {
-
-							leftEyeImageResized = new BufferedImage(sw, sh, hasTransparency(leftEyeImage) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
-							rightEyeImageResized = new BufferedImage(sw, sh, hasTransparency(leftEyeImage) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
-
-							BufferedImageOp scaleOp = new AffineTransformOp(AffineTransform.getScaleInstance(scale, scale), AffineTransformOp.TYPE_BICUBIC);
-
-							leftEyeImageResized.createGraphics().drawImage(leftEyeImage, scaleOp, 0, 0);
-							rightEyeImageResized.createGraphics().drawImage(rightEyeImage, scaleOp, 0, 0);
+				StereoSnapshot current = getSnapshot();
+				if(current.getPair() == pair && current.isScaled() && scaledWith == quality && current.getLeftScaled().getWidth() == sw && current.getLeftScaled().getHeight() == sh)
+					return;
+				
+				try {
+					BufferedImage [] scaled = levels.scale(sw, sh, quality, new ImageScaler.Cancellation() {
+						public boolean isCancelled() {
+							return gen != generation.get();
 						}
-					} else {
-						leftEyeImageResized = leftEyeImage;
-						rightEyeImageResized = rightEyeImage;
-					}
-					
-					lastResize = System.currentTimeMillis();
+					});
+					leftResized = scaled[0];
+					rightResized = scaled[1];
+				} catch (CancellationException e) {
+					return;
 				}
-				
-				stereoPanel.repaint();
+			} else {
+				leftResized = left;
+				rightResized = right;
 			}
+			
+			StereoSnapshot s;
+			do {
+				s = snapshot.get();
+				if(gen != generation.get() || s.getPair() != pair)
+					return;
+			} while(!snapshot.compareAndSet(s, s.withScaled(leftResized, rightResized)));
+			
+			scaledWith = quality;
+			
+			stereoPanel.repaint();
 		}
 	}
 	
+	private ResizeScheduler resizeScheduler = new ResizeScheduler();
+	
 	public class StereoPanel extends JPanel {
 		private static final long serialVersionUID = 1L;
 		
@@ -728,81 +1436,300 @@ public class SSMV implements Runnable {
 		
 		private boolean helpPoints = prefs.getBoolean(prefHelpPoints, prefHelpPointsDefault);
 		
-		private BufferedImage anaglyphSourceLeft = null;
-		private BufferedImage anaglyphSourceRight = null;
-		private BufferedImage anaglyph = null;
+		// alignment corrected copy of one of the displayed images
+		private BufferedImage alignedSource = null;
+		private StereoAlignment alignedWith = null;
+		private BufferedImage aligned = null;
+		
+		// anaglyph or interleaved image
+		private BufferedImage composedSourceLeft = null;
+		private BufferedImage composedSourceRight = null;
+		private BufferedImage composed = null;
+		private StereoMode composedMode = null;
+		private Point composedParity = null;
 		
 		private int usedIndex = -1;
-		private int anaglyphMaskIndex;
 		
-		private Dimension maxImageSize = null;
-		private long lastSizeUpdate = -1L;
+		// screen format copies of the displayed images
+		private final DisplayCache displayCache = new DisplayCache();
+		private StereoSnapshot displayedSnapshot = null;
+		private int anaglyphMaskIndex;
 		
-		public Dimension getMaxImageSize() {
-			return maxImageSize;
+		private AnaglyphMethod usedMethod = null;
+		private AnaglyphMethod anaglyphMethod = AnaglyphMethod.Mask;
+		
+		// 0 shows the whole image, otherwise display pixels per source pixel
+		private double zoom = 0;
+		
+		// center of the visible region as a fraction of the image size, shared by both eyes
+		private double centerX = 0.5;
+		private double centerY = 0.5;
+		
+		private Point dragPoint = null;
+		
+		// viewport sized buffers for the zoomed anaglyph
+		private BufferedImage viewLeft = null;
+		private BufferedImage viewRight = null;
+		private BufferedImage viewAnaglyph = null;
+		private View anaglyphView = null;
+		private int viewIndex = -1;
+		private AnaglyphMethod viewMethod = null;
+		private StereoMode viewMode = null;
+		private Point viewParity = null;
+		private int viewTileVersion = -1;
+		
+		/**
+		 * The region of the images that is visible in one viewport at the current zoom.
+		 */
+		private class View {
+			// destination in panel coordinates
+			int dx, dy, dw, dh;
+			// region of the source images (full resolution coordinates)
+			double x0, y0, w0, h0;
+			// region in the drawn images
+			int sx, sy, sw, sh;
+			// drawn images for the left and right eye (swap applied)
+			BufferedImage left, right;
+			// full resolution details if the drawn images are not enough
+			TiledImage leftTiles, rightTiles;
+			// size of the source images
+			int srcW, srcH;
+			// both eyes are drawn with exact transforms if one of them is corrected
+			boolean aligned;
+			StereoAlignment leftAlignment, rightAlignment;
+			
+			public View translate(int tx, int ty) {
+				View v = new View();
+				v.dx = dx + tx; v.dy = dy + ty; v.dw = dw; v.dh = dh;
+				v.x0 = x0; v.y0 = y0; v.w0 = w0; v.h0 = h0;
+				v.sx = sx; v.sy = sy; v.sw = sw; v.sh = sh;
+				v.left = left; v.right = right;
+				v.leftTiles = leftTiles; v.rightTiles = rightTiles;
+				v.srcW = srcW; v.srcH = srcH;
+				v.aligned = aligned; v.leftAlignment = leftAlignment; v.rightAlignment = rightAlignment;
+				return v;
+			}
+			
+			public boolean sameRegion(View v) {
+				return v != null && v.dw == dw && v.dh == dh && v.sx == sx && v.sy == sy && v.sw == sw && v.sh == sh && v.left == left && v.right == right
+						&& v.x0 == x0 && v.y0 == y0 && v.leftTiles == leftTiles && v.rightTiles == rightTiles
+						&& v.aligned == aligned && v.leftAlignment == leftAlignment && v.rightAlignment == rightAlignment;
+			}
+			
+			/**
+			 * @return the transform from source coordinates to the destination
+			 */
+			public AffineTransform getSourceTransform() {
+				AffineTransform t = AffineTransform.getTranslateInstance(dx, dy);
+				t.scale(dw / w0, dh / h0);
+				t.translate(-x0, -y0);
+				return t;
+			}
+			
+			/**
+			 * @return the correction in destination coordinates, identity for null
+			 */
+			public AffineTransform getCorrection(StereoAlignment alignment) {
+				if(alignment == null)
+					return new AffineTransform();
+				
+				AffineTransform t = getSourceTransform();
+				AffineTransform c = new AffineTransform(t);
+				c.concatenate(alignment.getCorrection(srcW, srcH));
+				try {
+					c.concatenate(t.createInverse());
+				} catch (NoninvertibleTransformException e) {
+					return new AffineTransform();
+				}
+				return c;
+			}
 		}
 		
-		public long getLastSizeUpdate() {
-			return lastSizeUpdate;
+		private static final double ZOOM_STEP = 1.25;
+		private static final double MAX_ZOOM = 16.0;
+		private static final int MIN_VIEW_SIZE = 64;
+		
+		/**
+		 * @return the size available for one image in the current mode
+		 */
+		public Dimension getMaxImageSize() {
+			int mh = getHeight() - 2 * vborder;
+			int mw = getWidth() - (2 * hborder + hgap);
+			
+			if(mode == StereoMode.Cross)
+				mw /= 2;
+			
+			return new Dimension(mw, mh);
 		}
 		
 		public StereoPanel() {
 			setStereoMode(stringToSM(prefs.get(prefMode, prefModeDefault)));
 			setAnaglyphMaskIndex(prefs.getInt(prefAnaglyphMask, prefAnaglyphMaskDefault));
+			setAnaglyphMethod(stringToAM(prefs.get(prefAnaglyphMethod, prefAnaglyphMethodDefault)));
+			
+			MouseAdapter zoomAndPan = new MouseAdapter() {
+				@Override
+				public void mouseWheelMoved(MouseWheelEvent e) {
+					StereoSnapshot snap = getSnapshot();
+					if(snap.isValid())
+						setZoom(getDisplayScale(snap) * Math.pow(ZOOM_STEP, -e.getWheelRotation()), e.getPoint());
+				}
+				
+				@Override
+				public void mousePressed(MouseEvent e) {
+					dragPoint = e.getPoint();
+				}
+				
+				@Override
+				public void mouseDragged(MouseEvent e) {
+					if(dragPoint == null || !validImage())
+						return;
+					
+					setCursor(Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR));
+					pan(e.getX() - dragPoint.x, e.getY() - dragPoint.y);
+					dragPoint = e.getPoint();
+				}
+				
+				@Override
+				public void mouseReleased(MouseEvent e) {
+					dragPoint = null;
+					setCursor(null);
+				}
+				
+				@Override
+				public void mouseClicked(MouseEvent e) {
+					if(e.getClickCount() != 2 || !validImage())
+						return;
+					
+					if(zoom == 0)
+						setZoom(1.0, e.getPoint());
+					else
+						resetZoom();
+				}
+			};
+			addMouseListener(zoomAndPan);
+			addMouseMotionListener(zoomAndPan);
+			addMouseWheelListener(zoomAndPan);
 		}
 		
-		public BufferedImage getAnaglyphImage() {
-			if(!validImage())
+		/**
+		 * @return true if the displayed image depends on the position on the screen
+		 */
+		public boolean isInterleaved() {
+			return getInterleavePattern(mode) != null;
+		}
+		
+		/**
+		 * Interleaved images have to match the pixel grid of the display. A pattern that
+		 * is aligned for the position returned here is aligned at (x,y) in this panel.
+		 */
+		private Point getParity(int x, int y) {
+			if(!isInterleaved() || !isShowing())
+				return new Point(0, 0);
+			
+			Point p = getLocationOnScreen();
+			return new Point((p.x + x) & 1, (p.y + y) & 1);
+		}
+		
+		private BufferedImage compose(BufferedImage left, BufferedImage right, Point parity, BufferedImage dst) {
+			InterleaveEngine.Pattern pattern = getInterleavePattern(mode);
+			if(pattern != null)
+				return InterleaveEngine.interleave(left, right, pattern, parity.x, parity.y, dst);
+			
+			return createAnaglyphImage(left, right, anaglyphMethod, anaglyphMaskIndex, dst);
+		}
+		
+		/**
+		 * @param x position of the image in the panel
+		 * @return the anaglyph or interleaved image of the displayed images, the buffer is reused
+		 */
+		public BufferedImage getComposedImage(StereoSnapshot snap, int x, int y) {
+			if(!snap.isValid())
 				return null;
 			
-			if(anaglyph == null || anaglyphSourceLeft != getLeft() || usedIndex != anaglyphMaskIndex) {
-				anaglyphSourceLeft = getLeft();
-				anaglyphSourceRight = getRight();
+			Point parity = getParity(x, y);
+			BufferedImage left = getDisplayedLeft(snap);
+			BufferedImage right = getDisplayedRight(snap);
+			
+			if(composed == null || composedSourceLeft != left || composedSourceRight != right || composedMode != mode || !parity.equals(composedParity) || usedIndex != anaglyphMaskIndex || usedMethod != anaglyphMethod) {
+				composedSourceLeft = left;
+				composedSourceRight = right;
+				composedMode = mode;
+				composedParity = parity;
 				usedIndex = anaglyphMaskIndex;
-				anaglyph = createAnaglyphImage(anaglyphSourceLeft, anaglyphSourceRight, anaglyphMasks[anaglyphMaskIndex], anaglyph);
+				usedMethod = anaglyphMethod;
+				if(composed != null)
+					displayCache.invalidate(composed);
+				composed = compose(composedSourceLeft, composedSourceRight, parity, composed);
 			}
-			return anaglyph;
+			return composed;
 		}
 		
-		public BufferedImage getWiggleImage() {
-			if(!validImage())
-				return null;
+		/**
+		 * Only one eye is ever corrected, the copy is kept until the image or the alignment changes.
+		 * It is not reused, the composed image is only updated for new source images.
+		 * 
+		 * @return the image itself if there is no correction
+		 */
+		private BufferedImage getAligned(BufferedImage image, StereoAlignment alignment) {
+			if(alignment == null)
+				return image;
 			
-			return wiggleTurn ? getRight() : getLeft();
+			if(aligned == null || alignedSource != image || alignedWith != alignment) {
+				if(aligned != null)
+					displayCache.invalidate(aligned);
+				alignedSource = image;
+				alignedWith = alignment;
+				aligned = alignment.apply(image, null);
+			}
+			return aligned;
+		}
+		
+		/**
+		 * @return the displayed image of the left eye (swap and alignment applied)
+		 */
+		private BufferedImage getDisplayedLeft(StereoSnapshot snap) {
+			return getAligned(snap.getLeft(), snap.getLeftAlignment());
 		}
 		
-		private class WiggleThread extends Thread {
-			private boolean keepRunning = true;
+		private BufferedImage getDisplayedRight(StereoSnapshot snap) {
+			return getAligned(snap.getRight(), snap.getRightAlignment());
+		}
+		
+		public BufferedImage getWiggleImage(StereoSnapshot snap) {
+			if(!snap.isValid())
+				return null;
 			
-			public WiggleThread() {
-				setDaemon(true);
-				start();
-			}
+			return wiggleTurn ? getDisplayedRight(snap) : getDisplayedLeft(snap);
+		}
+		
+		/**
+		 * @return screen copies of both eyes, made together so that flipping never waits for a conversion
+		 */
+		private DisplayImage getWiggleFrame(StereoSnapshot snap) {
+			GraphicsConfiguration gc = getGraphicsConfiguration();
 			
-			public void endWiggle() {
-				keepRunning = false;
-			}
+			DisplayImage left = displayCache.get(getDisplayedLeft(snap), gc);
+			DisplayImage right = displayCache.get(getDisplayedRight(snap), gc);
 			
-			public void run() {
-				while(keepRunning) {
-					try {
-						sleep(wiggleDelay);
-					} catch (InterruptedException e) {
-					}
-					
-					if(mode==StereoMode.Wiggle) {
-						if(validImage()) {
-							wiggleTurn = !wiggleTurn;
-							repaint();
-						}
-					} else {
-						break;
-					}
-				}
-			}
-		};
+			return wiggleTurn ? right : left;
+		}
 		
-		private WiggleThread wiggleThread = null;
+		/**
+		 * Drops the screen copies, called when new images are loaded or scaled
+		 */
+		public void invalidateDisplayCache() {
+			displayCache.clear();
+		}
+		
+		private final WiggleAnimator wiggleAnimator = new WiggleAnimator(new WiggleAnimator.Listener() {
+			public void showFrame(boolean second) {
+				wiggleTurn = second;
+				// painted right away, a repaint could be coalesced with the next flip
+				if(validImage())
+					paintImmediately(0, 0, getWidth(), getHeight());
+			}
+		});
 		
 		public void setHGap(int hgap) {
 			if(this.hgap == hgap)
@@ -864,16 +1791,9 @@ public class SSMV implements Runnable {
 			mode = sm;
 			
 			if(mode == StereoMode.Wiggle) {
-				if(wiggleThread!=null) {
-					wiggleThread.endWiggle();
-				}
-
-				wiggleThread = new WiggleThread();
+				wiggleAnimator.start(wiggleDelay);
 			} else {
-				if(wiggleThread!=null) {
-					wiggleThread.endWiggle();
-					wiggleThread = null;
-				}
+				wiggleAnimator.stop();
 			}
 			
 			adjustImageAreaInFrame();
@@ -894,6 +1814,19 @@ public class SSMV implements Runnable {
 			return anaglyphMaskIndex;
 		}
 		
+		public void setAnaglyphMethod(AnaglyphMethod am) {
+			if(am == anaglyphMethod)
+				return;
+			
+			anaglyphMethod = am;
+			
+			repaint();
+		}
+		
+		public AnaglyphMethod getAnaglyphMethod() {
+			return anaglyphMethod;
+		}
+		
 		public void setHelpPoints(boolean helpPoints) {
 			if(this.helpPoints == helpPoints)
 				return;
@@ -908,71 +1841,379 @@ public class SSMV implements Runnable {
 		
 		public void setWiggleDelay(int wd) {
 			wiggleDelay = wd;
+			
+			if(wiggleAnimator.isRunning())
+				wiggleAnimator.start(wiggleDelay);
+		}
+		
+		public double getZoom() {
+			return zoom;
+		}
+		
+		/**
+		 * Shows the whole image again
+		 */
+		public void resetZoom() {
+			zoom = 0;
+			centerX = 0.5;
+			centerY = 0.5;
+			viewLeft = viewRight = viewAnaglyph = null;
+			anaglyphView = null;
+			repaint();
+		}
+		
+		/**
+		 * @return display pixels per source pixel of the currently shown images
+		 */
+		private double getDisplayScale(StereoSnapshot snap) {
+			if(zoom > 0)
+				return zoom;
+			return (double)snap.getLeft().getWidth() / (double)snap.getPair().getSourceWidth();
+		}
+		
+		/**
+		 * @return the zoom at which the whole image fits into a viewport
+		 */
+		private double getFitZoom(StereoSnapshot snap) {
+			Dimension vp = getMaxImageSize();
+			StereoPair pair = snap.getPair();
+			return Math.min((double)vp.width / pair.getSourceWidth(), (double)vp.height / pair.getSourceHeight());
+		}
+		
+		/**
+		 * Zooms keeping the image point under p in place.
+		 * 
+		 * @param p in panel coordinates, null zooms around the center
+		 */
+		public void setZoom(double newZoom, Point p) {
+			StereoSnapshot snap = getSnapshot();
+			if(!snap.isValid())
+				return;
+			
+			StereoPair pair = snap.getPair();
+			
+			if(zoom == 0) {
+				zoom = getDisplayScale(snap);
+				centerX = 0.5;
+				centerY = 0.5;
+			}
+			
+			newZoom = Math.min(newZoom, MAX_ZOOM);
+			
+			if(newZoom < zoom && newZoom <= getFitZoom(snap)) {
+				resetZoom();
+				return;
+			}
+			
+			if(p != null) {
+				Rectangle vp = getViewport(p.x);
+				View v = computeView(snap, vp);
+				
+				// image point under the cursor stays under the cursor
+				double px = v.x0 + (p.x - v.dx) / zoom;
+				double py = v.y0 + (p.y - v.dy) / zoom;
+				
+				centerX = (px + (vp.x + vp.width / 2.0 - p.x) / newZoom) / pair.getSourceWidth();
+				centerY = (py + (vp.y + vp.height / 2.0 - p.y) / newZoom) / pair.getSourceHeight();
+			}
+			
+			zoom = newZoom;
+			clampCenter(snap);
+			
+			if(pair.isPreview() && pair.getSourceWidth() * zoom > pair.getWidth())
+				ensureFullResolution(null);
+			
+			repaint();
+		}
+		
+		/**
+		 * Moves the visible region of both eyes by the given amount of display pixels
+		 */
+		public void pan(int dx, int dy) {
+			StereoSnapshot snap = getSnapshot();
+			if(!snap.isValid())
+				return;
+			
+			if(zoom == 0)
+				zoom = getDisplayScale(snap);
+			
+			centerX -= dx / (zoom * snap.getPair().getSourceWidth());
+			centerY -= dy / (zoom * snap.getPair().getSourceHeight());
+			clampCenter(snap);
+			
+			repaint();
+		}
+		
+		private void clampCenter(StereoSnapshot snap) {
+			Dimension vp = getMaxImageSize();
+			StereoPair pair = snap.getPair();
+			
+			double hw = Math.min(1.0, vp.width / (zoom * pair.getSourceWidth())) / 2.0;
+			double hh = Math.min(1.0, vp.height / (zoom * pair.getSourceHeight())) / 2.0;
+			
+			centerX = Math.max(hw, Math.min(1.0 - hw, centerX));
+			centerY = Math.max(hh, Math.min(1.0 - hh, centerY));
+		}
+		
+		/**
+		 * @return the viewport of the eye at the given x position
+		 */
+		private Rectangle getViewport(int x) {
+			Dimension vp = getMaxImageSize();
+			int vx = (getWidth() - vp.width) / 2;
+			int vy = (getHeight() - vp.height) / 2;
+			
+			if(mode == StereoMode.Cross) {
+				vx = (getWidth() - (vp.width * 2 + hgap)) / 2;
+				if(x >= vx + vp.width + hgap)
+					vx += vp.width + hgap;
+			}
+			
+			return new Rectangle(vx, vy, vp.width, vp.height);
+		}
+		
+		private View computeView(StereoSnapshot snap, Rectangle vp) {
+			StereoPair pair = snap.getPair();
+			int srcW = pair.getSourceWidth();
+			int srcH = pair.getSourceHeight();
+			
+			View v = new View();
+			
+			// visible part in source pixels
+			double vw = Math.min(srcW, vp.width / zoom);
+			double vh = Math.min(srcH, vp.height / zoom);
+			
+			v.x0 = Math.max(0, Math.min(srcW - vw, centerX * srcW - vw / 2.0));
+			v.y0 = Math.max(0, Math.min(srcH - vh, centerY * srcH - vh / 2.0));
+			v.w0 = vw;
+			v.h0 = vh;
+			
+			v.dw = Math.max(1, (int)Math.round(vw * zoom));
+			v.dh = Math.max(1, (int)Math.round(vh * zoom));
+			v.dx = vp.x + (vp.width - v.dw) / 2;
+			v.dy = vp.y + (vp.height - v.dh) / 2;
+			
+			// the smallest mip level that still has enough pixels
+			BufferedImage [] images = { pair.getLeft(), pair.getRight() };
+			ImagePyramid pyramid = resizeScheduler.getPyramid(pair);
+			if(pyramid != null)
+				images = pyramid.getSourceFor((int)Math.ceil(srcW * zoom), (int)Math.ceil(srcH * zoom));
+			
+			v.left = snap.isSwap() ? images[1] : images[0];
+			v.right = snap.isSwap() ? images[0] : images[1];
+			
+			if(pair.isTiled() && srcW * zoom > pair.getWidth()) {
+				v.leftTiles = snap.isSwap() ? pair.getRightTiles() : pair.getLeftTiles();
+				v.rightTiles = snap.isSwap() ? pair.getLeftTiles() : pair.getRightTiles();
+			}
+			
+			v.srcW = srcW;
+			v.srcH = srcH;
+			v.aligned = snap.isAligned();
+			v.leftAlignment = snap.getLeftAlignment();
+			v.rightAlignment = snap.getRightAlignment();
+			
+			int iw = v.left.getWidth();
+			int ih = v.left.getHeight();
+			double s = (double)iw / srcW;
+			
+			v.sx = Math.min(iw - 1, (int)Math.floor(v.x0 * s));
+			v.sy = Math.min(ih - 1, (int)Math.floor(v.y0 * s));
+			v.sw = Math.max(1, Math.min(iw - v.sx, (int)Math.round(vw * s)));
+			v.sh = Math.max(1, Math.min(ih - v.sy, (int)Math.round(vh * s)));
+			
+			return v;
+		}
+		
+		/**
+		 * @param tiles drawn over the image where they are already decoded, may be null
+		 * @param alignment correction of this eye, may be null
+		 */
+		private void drawView(Graphics2D g2d, View v, BufferedImage image, TiledImage tiles, StereoAlignment alignment) {
+			boolean enlarge = v.dw >= v.sw;
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, enlarge ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			
+			if(!v.aligned) {
+				g2d.drawImage(image, v.dx, v.dy, v.dx + v.dw, v.dy + v.dh, v.sx, v.sy, v.sx + v.sw, v.sy + v.sh, null);
+				
+				if(tiles != null)
+					tileCache.drawRegion(g2d, tiles, v.x0, v.y0, v.w0, v.h0, v.dx, v.dy, v.dw, v.dh);
+				return;
+			}
+			
+			// the drawn region is rounded to whole pixels of the image, not precise enough to line up with a corrected eye
+			Graphics2D ga = (Graphics2D)g2d.create();
+			try {
+				ga.clipRect(v.dx, v.dy, v.dw, v.dh);
+				ga.transform(v.getCorrection(alignment));
+				
+				AffineTransform t = v.getSourceTransform();
+				t.scale((double)v.srcW / image.getWidth(), (double)v.srcH / image.getHeight());
+				ga.drawImage(image, t, null);
+				
+				if(tiles != null)
+					tileCache.drawRegion(ga, tiles, v.x0, v.y0, v.w0, v.h0, v.dx, v.dy, v.dw, v.dh);
+			} finally {
+				ga.dispose();
+			}
+		}
+		
+		private BufferedImage renderView(View v, BufferedImage image, TiledImage tiles, StereoAlignment alignment, BufferedImage dst) {
+			boolean alpha = hasTransparency(image);
+			if(dst == null || dst.getWidth() != v.dw || dst.getHeight() != v.dh || hasTransparency(dst) != alpha)
+				dst = IntRaster.createIntImage(v.dw, v.dh, alpha);
+			
+			Graphics2D g2d = dst.createGraphics();
+			g2d.setComposite(AlphaComposite.Src);
+			if(v.aligned) {
+				// the corrected image does not cover the corners
+				g2d.setColor(new Color(0, 0, 0, 0));
+				g2d.fillRect(0, 0, v.dw, v.dh);
+			}
+			drawView(g2d, v.translate(-v.dx, -v.dy), image, tiles, alignment);
+			g2d.dispose();
+			
+			return dst;
+		}
+		
+		/**
+		 * @return the anaglyph or interleaved image of the visible region only, the buffers are the size of the viewport
+		 */
+		private BufferedImage getComposedView(View v) {
+			boolean tilesChanged = v.leftTiles != null && viewTileVersion != tileCache.getVersion();
+			Point parity = getParity(v.dx, v.dy);
+			
+			if(viewAnaglyph == null || tilesChanged || !v.sameRegion(anaglyphView) || viewMode != mode || !parity.equals(viewParity) || viewIndex != anaglyphMaskIndex || viewMethod != anaglyphMethod) {
+				viewTileVersion = tileCache.getVersion();
+				viewLeft = renderView(v, v.left, v.leftTiles, v.leftAlignment, viewLeft);
+				viewRight = renderView(v, v.right, v.rightTiles, v.rightAlignment, viewRight);
+				viewAnaglyph = compose(viewLeft, viewRight, parity, viewAnaglyph);
+				
+				anaglyphView = v;
+				viewMode = mode;
+				viewParity = parity;
+				viewIndex = anaglyphMaskIndex;
+				viewMethod = anaglyphMethod;
+			}
+			return viewAnaglyph;
+		}
+		
+		private void paintZoomed(Graphics2D g2d, StereoSnapshot snap) {
+			Rectangle vp = getViewport(0);
+			View v = computeView(snap, vp);
+			
+			switch(mode) {
+			case Anaglyph:
+			case RowInterleaved:
+			case ColumnInterleaved:
+			case Checkerboard:
+				g2d.drawImage(getComposedView(v), null, v.dx, v.dy);
+				break;
+			case Wiggle:
+				if(wiggleTurn)
+					drawView(g2d, v, v.right, v.rightTiles, v.rightAlignment);
+				else
+					drawView(g2d, v, v.left, v.leftTiles, v.leftAlignment);
+				break;
+			default:
+				View v2 = v.translate(vp.width + hgap, 0);
+				
+				if(helpPoints) {
+					int hpsize = vborder - 4;
+					g2d.setColor(getForeground());
+					g2d.fillArc(vp.x + (vp.width - hpsize) / 2 + 1, v.dy - vborder + 1, hpsize, hpsize, 0, 360);
+					g2d.fillArc(vp.x + vp.width + hgap + (vp.width - hpsize) / 2 + 1, v.dy - vborder + 1, hpsize, hpsize, 0, 360);
+				}
+				
+				drawView(g2d, v, v.right, v.rightTiles, v.rightAlignment);
+				drawView(g2d, v2, v2.left, v2.leftTiles, v2.leftAlignment);
+			}
 		}
 		
 		public Dimension getMinimumSize() {
 			if(!validImage())
 				return super.getMinimumSize();
-
+			
+			// the images are fitted or zoomed into whatever space there is
 			switch(mode) {
-			case Anaglyph:
-			case Wiggle:
-				return new Dimension(getLeft().getWidth() + 2 * hborder, getLeft().getHeight() + 2 * vborder);
+			case Cross:
+				return new Dimension(MIN_VIEW_SIZE * 2 + hgap + 2 * hborder, MIN_VIEW_SIZE + 2 * vborder);
 			default:
-				return new Dimension(getLeft().getWidth()*2 + hgap + 2 * hborder, getLeft().getHeight() + 2 * vborder);
+				return new Dimension(MIN_VIEW_SIZE + 2 * hborder, MIN_VIEW_SIZE + 2 * vborder);
 			}
 		}
 		
 		public Dimension getPreferredSize() {
-			if(!validImage())
+			StereoSnapshot snap = getSnapshot();
+			if(!snap.isValid())
 				return super.getPreferredSize();
 			
-			return getMinimumSize();
+			BufferedImage left = snap.getLeft();
+
+			switch(mode) {
+			case Cross:
+				return new Dimension(left.getWidth()*2 + hgap + 2 * hborder, left.getHeight() + 2 * vborder);
+			default:
+				return new Dimension(left.getWidth() + 2 * hborder, left.getHeight() + 2 * vborder);
+			}
 		}
 		
 		public Dimension getMaximumSize() {
 			if(!validImage())
 				return super.getMaximumSize();
 			
-			return getMinimumSize();
+			return getPreferredSize();
 		}
 		
 		@Override
 		public void paintComponent(Graphics g) {
-			if(!validImage()) {
+			// one snapshot for the whole paint, a rescale may publish a new one meanwhile
+			StereoSnapshot snap = getSnapshot();
+			
+			if(!snap.isValid()) {
 				super.paintComponent(g);
 				return;
 			}
 			
+			// copies of images that were replaced by a rescale are no longer needed
+			if(snap != displayedSnapshot) {
+				displayedSnapshot = snap;
+				displayCache.retain(getDisplayedLeft(snap), getDisplayedRight(snap), composed);
+			}
+			
 			Graphics2D g2d = (Graphics2D)g;
 			int w = getWidth();
 			int h = getHeight();
 			
-			int iw = getLeft().getWidth();
-			int ih = getLeft().getHeight();
+			int iw = snap.getLeft().getWidth();
+			int ih = snap.getLeft().getHeight();
 			
 			g2d.setColor(getBackground());
 			g2d.fillRect(0,0,w,h);
 			
+			if(zoom > 0) {
+				paintZoomed(g2d, snap);
+				return;
+			}
+			
 			int delta_h;
 			int delta_v = (h - (ih + 2 * vborder)) / 2;;
 			
-			int mh = h - 2 * vborder;
-			int mw = w - (2 * hborder + hgap);
-			
 			switch(mode) {
 			case Anaglyph:
+			case RowInterleaved:
+			case ColumnInterleaved:
+			case Checkerboard:
 				delta_h = (w - (iw + 2 * hborder)) / 2;
 				
-				g2d.drawImage(getAnaglyphImage(), null, delta_h + hborder, delta_v + vborder);
+				displayCache.draw(g2d, getComposedImage(snap, delta_h + hborder, delta_v + vborder), getGraphicsConfiguration(), delta_h + hborder, delta_v + vborder);
 				break;
 			case Wiggle:
 				delta_h = (w - (iw + 2 * hborder)) / 2;
-				g2d.drawImage(getWiggleImage(), null, delta_h + hborder, delta_v + vborder);
+				getWiggleFrame(snap).draw(g2d, delta_h + hborder, delta_v + vborder);
 				break;
 			default:
 				delta_h = (w - (iw*2 + hgap + 2 * hborder)) / 2;
-				mw /= 2;
 
 				if(helpPoints) {
 					int hpsize = vborder - 4;
@@ -984,15 +2225,8 @@ public class SSMV implements Runnable {
 
 				}
 
-				g2d.drawImage(getRight(), null, delta_h + hborder, delta_v + vborder);
-				g2d.drawImage(getLeft(), null, delta_h + hborder + iw + hgap, delta_v + vborder);
-			}
-			
-			Dimension cm = maxImageSize;
-			
-			if(cm == null || cm.width != mw || cm.height != mh) {
-				maxImageSize = new Dimension(mw, mh);
-				lastSizeUpdate = System.currentTimeMillis();
+				displayCache.draw(g2d, getDisplayedRight(snap), getGraphicsConfiguration(), delta_h + hborder, delta_v + vborder);
+				displayCache.draw(g2d, getDisplayedLeft(snap), getGraphicsConfiguration(), delta_h + hborder + iw + hgap, delta_v + vborder);
 			}
 		}
 	}
@@ -1048,6 +2282,10 @@ public class SSMV implements Runnable {
 	};
 	
 	public void run() {
+		SideBySideLayout sbsLayout = SideBySideLayout.forName(prefs.get(prefSideBySideLayout, prefSideBySideLayoutDefault));
+		if(sbsLayout != null)
+			pairCache.setLayout(sbsLayout);
+		
 		openChooser = new JFileChooser();
 		
 		openChooser.setAcceptAllFileFilterUsed(true);
@@ -1063,13 +2301,66 @@ public class SSMV implements Runnable {
 		frame.addWindowListener(windowListener);
 		
 		frame.add(stereoPanel = new StereoPanel());
+		stereoPanel.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				resizeScheduler.schedule();
+			}
+		});
+		frame.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentMoved(ComponentEvent e) {
+				// odd moves swap the eyes on the display lines
+				if(stereoPanel.isInterleaved())
+					stereoPanel.repaint();
+			}
+		});
+		
+		filmStrip = new FilmStrip(new Thumbnails(Thumbnails.getDefaultCacheDir(), Thumbnails.DEFAULT_SIZE), new FilmStrip.Listener() {
+			public void fileSelected(File f) {
+				if(!f.equals(loadedFile))
+					startLoading(f, isMPOFile(f));
+			}
+		});
+		filmStrip.setVisible(prefs.getBoolean(prefFilmStrip, prefFilmStripDefault));
+		frame.add(filmStrip, BorderLayout.WEST);
+		
+		statusPanel = new JPanel(new BorderLayout(8, 0));
+		statusPanel.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+		statusPanel.add(statusLabel = new JLabel(), BorderLayout.WEST);
+		statusPanel.add(statusProgress = new JProgressBar(0, 100), BorderLayout.CENTER);
+		JButton cancelButton = new JButton(fileAction);
+		cancelButton.setActionCommand(acCancelLoad);
+		cancelButton.setText("Cancel");
+		statusPanel.add(cancelButton, BorderLayout.EAST);
+		statusPanel.setVisible(false);
+		
+		savePanel = new JPanel(new BorderLayout(8, 0));
+		savePanel.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+		savePanel.add(saveLabel = new JLabel(), BorderLayout.WEST);
+		savePanel.add(saveProgress = new JProgressBar(0, 100), BorderLayout.CENTER);
+		savePanel.setVisible(false);
+		
+		// loading and saving can be in progress at the same time
+		JPanel southPanel = new JPanel();
+		southPanel.setLayout(new BoxLayout(southPanel, BoxLayout.Y_AXIS));
+		southPanel.add(statusPanel);
+		southPanel.add(savePanel);
+		frame.add(southPanel, BorderLayout.SOUTH);
 		
 		JMenu fileMenu = new JMenu("File");
 		
 		fileMenu.add(withKeyStroke(setACAndText(new JMenuItem(fileAction), acOpen, "Open...", 'O'), KeyStroke.getKeyStroke(KeyEvent.VK_O, KeyEvent.CTRL_MASK)));
+		fileMenu.add(withKeyStroke(setACAndText(new JMenuItem(fileAction), acCancelLoad, "Cancel loading", 'C'), KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0)));
+		fileMenu.add(withKeyStroke(setACAndText(new JMenuItem(fileAction), acNext, "Next image", 'N'), KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_DOWN, 0)));
+		fileMenu.add(withKeyStroke(setACAndText(new JMenuItem(fileAction), acPrevious, "Previous image", 'v'), KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_UP, 0)));
 		fileMenu.add(withKeyStroke(setACAndText(new JMenuItem(fileAction), acSaveLeft, "Save left image...", 'L'), KeyStroke.getKeyStroke(KeyEvent.VK_L, KeyEvent.CTRL_MASK)));
 		fileMenu.add(withKeyStroke(setACAndText(new JMenuItem(fileAction), acSaveRight, "Save right image...", 'R'), KeyStroke.getKeyStroke(KeyEvent.VK_R, KeyEvent.CTRL_MASK)));
 		fileMenu.add(withKeyStroke(setACAndText(new JMenuItem(fileAction), acSaveAnaglyph, "Save anaglyph image...", 'Y'), KeyStroke.getKeyStroke(KeyEvent.VK_Y, KeyEvent.CTRL_MASK)));
+		fileMenu.add(setACAndText(new JMenuItem(fileAction), acSaveInterleaved, "Save interleaved image...", 'I'));
+		fileMenu.add(withKeyStroke(setACAndText(new JMenuItem(fileAction), acSaveMPO, "Save as MPO...", 'M'), KeyStroke.getKeyStroke(KeyEvent.VK_M, KeyEvent.CTRL_MASK)));
+		fileMenu.add(setACAndText(new JMenuItem(fileAction), acJPEGQuality, "JPEG Quality...", 'Q'));
+		fileMenu.add(setACAndText(new JMenuItem(fileAction), acPNGCompression, "PNG Compression...", 'G'));
 		fileMenu.addSeparator();
 		fileMenu.add(withKeyStroke(setACAndText(new JMenuItem(aboutAction), acAbout, "About...", 'A'), KeyStroke.getKeyStroke(KeyEvent.VK_F1, 0)));
 		fileMenu.addSeparator();
@@ -1078,6 +2369,7 @@ public class SSMV implements Runnable {
 		JMenu imageMenu = new JMenu("Image");
 		
 		imageMenu.add(withKeyStroke(setSelected(setACAndText(new JCheckBoxMenuItem(imageAction), acSwap, "Swap", 'S'), prefs.getBoolean(prefSwap, prefSwapDefault)), KeyStroke.getKeyStroke(KeyEvent.VK_S, KeyEvent.CTRL_MASK)));
+		imageMenu.add(setSelected(setACAndText(new JCheckBoxMenuItem(imageAction), acAutoAlign, "Auto Align", 'l'), prefs.getBoolean(prefAutoAlign, prefAutoAlignDefault)));
 		imageMenu.add(withKeyStroke(setSelected(setACAndText(new JCheckBoxMenuItem(imageAction), acHelpPoints, "Help-Points", 'P'), prefs.getBoolean(prefHelpPoints, prefHelpPointsDefault)), KeyStroke.getKeyStroke(KeyEvent.VK_P, KeyEvent.CTRL_MASK)));
 		imageMenu.add(withKeyStroke(setACAndText(new JMenuItem(imageAction), acWiggleDelay, "Wiggle Delay...", 'D'), KeyStroke.getKeyStroke(KeyEvent.VK_D, KeyEvent.CTRL_MASK)));
 
@@ -1087,10 +2379,16 @@ public class SSMV implements Runnable {
 		JMenuItem miCross = withKeyStroke(setACAndText(new JRadioButtonMenuItem(imageAction), acCross, "Cross-Eyed", 'C'), KeyStroke.getKeyStroke(KeyEvent.VK_C, KeyEvent.CTRL_MASK));;
 		JMenuItem miAnaglyph = withKeyStroke(setACAndText(new JRadioButtonMenuItem(imageAction), acAnaglyph, "Anaglyph", 'A'), KeyStroke.getKeyStroke(KeyEvent.VK_A, KeyEvent.CTRL_MASK));
 		JMenuItem miWiggle = withKeyStroke(setACAndText(new JRadioButtonMenuItem(imageAction), acWiggle, "Wiggle", 'W'), KeyStroke.getKeyStroke(KeyEvent.VK_W, KeyEvent.CTRL_MASK));
+		JMenuItem miRows = setACAndText(new JRadioButtonMenuItem(imageAction), acRowInterleaved, "Row Interleaved", 'R');
+		JMenuItem miColumns = setACAndText(new JRadioButtonMenuItem(imageAction), acColumnInterleaved, "Column Interleaved", 'l');
+		JMenuItem miCheckerboard = setACAndText(new JRadioButtonMenuItem(imageAction), acCheckerboard, "Checkerboard", 'h');
 		
 		bg.add(miCross);
 		bg.add(miAnaglyph);
 		bg.add(miWiggle);
+		bg.add(miRows);
+		bg.add(miColumns);
+		bg.add(miCheckerboard);
 		
 		switch(stereoPanel.getStereoMode()) {
 		case Cross:
@@ -1102,14 +2400,58 @@ public class SSMV implements Runnable {
 		case Wiggle:
 			miWiggle.setSelected(true);
 			break;
+		case RowInterleaved:
+			miRows.setSelected(true);
+			break;
+		case ColumnInterleaved:
+			miColumns.setSelected(true);
+			break;
+		case Checkerboard:
+			miCheckerboard.setSelected(true);
+			break;
 		}
 		
 		modeSub.add(miCross);
 		modeSub.add(miAnaglyph);
 		modeSub.add(miWiggle);
+		modeSub.add(miRows);
+		modeSub.add(miColumns);
+		modeSub.add(miCheckerboard);
 		imageMenu.add(withKeyStroke(setSelected(setACAndText(new JCheckBoxMenuItem(imageAction), acResizeToWindow, "Resize to Window", 'z'), prefs.getBoolean(prefResizeToWindow, prefResizeToWindowDefault)), KeyStroke.getKeyStroke(KeyEvent.VK_Z, KeyEvent.CTRL_MASK)));
 		imageMenu.add(withKeyStroke(setSelected(setACAndText(new JCheckBoxMenuItem(imageAction), acResizeOnlySmaller, "Only shrink Image", 'i'), prefs.getBoolean(prefResizeOnlySmaller, prefResizeOnlySmallerDefault)), KeyStroke.getKeyStroke(KeyEvent.VK_I, KeyEvent.CTRL_MASK)));
 		
+		JMenuItem qualitySub = new JMenu("Resize Quality");
+		ButtonGroup rqbg = new ButtonGroup();
+		
+		for(ImageScaler.Quality q : ImageScaler.Quality.values()) {
+			JMenuItem miquality = setACAndText(new JRadioButtonMenuItem(imageAction), acResizeQuality, resizeQualityNames[q.ordinal()], null);
+			miquality.putClientProperty(dRQuality, q);
+			rqbg.add(miquality);
+			if(resizeQuality == q)
+				miquality.setSelected(true);
+			qualitySub.add(miquality);
+		}
+		
+		imageMenu.add(qualitySub);
+		
+		JMenuItem layoutSub = new JMenu("Side-by-Side Layout");
+		ButtonGroup sbsbg = new ButtonGroup();
+		
+		for(SideBySideLayout l : SideBySideLayout.values()) {
+			JMenuItem milayout = setACAndText(new JRadioButtonMenuItem(imageAction), acSideBySideLayout, l.getDescription(), null);
+			milayout.putClientProperty(dSBSLayout, l);
+			sbsbg.add(milayout);
+			if(pairCache.getLayout() == l)
+				milayout.setSelected(true);
+			layoutSub.add(milayout);
+		}
+		
+		imageMenu.add(layoutSub);
+		imageMenu.add(withKeyStroke(setSelected(setACAndText(new JCheckBoxMenuItem(imageAction), acFilmStrip, "Thumbnail Strip", 'T'), prefs.getBoolean(prefFilmStrip, prefFilmStripDefault)), KeyStroke.getKeyStroke(KeyEvent.VK_T, KeyEvent.CTRL_MASK)));
+		imageMenu.add(withKeyStroke(setACAndText(new JMenuItem(imageAction), acZoomFit, "Zoom to fit", 'f'), KeyStroke.getKeyStroke(KeyEvent.VK_0, KeyEvent.CTRL_MASK)));
+		imageMenu.add(withKeyStroke(setACAndText(new JMenuItem(imageAction), acZoomActual, "Zoom 100%", '1'), KeyStroke.getKeyStroke(KeyEvent.VK_1, KeyEvent.CTRL_MASK)));
+		imageMenu.add(withKeyStroke(setACAndText(new JMenuItem(imageAction), acFullScreen, "Full Screen", 'u'), KeyStroke.getKeyStroke(KeyEvent.VK_F11, 0)));
+		
 		imageMenu.add(modeSub);
 		
 		JMenuItem anaglyphMaskSub = new JMenu("Anaglyph Mask");
@@ -1127,6 +2469,21 @@ public class SSMV implements Runnable {
 
 		imageMenu.add(anaglyphMaskSub);
 		
+		JMenuItem anaglyphMethodSub = new JMenu("Anaglyph Method");
+		ButtonGroup ametbg = new ButtonGroup();
+		
+		AnaglyphMethod ametset = stereoPanel.getAnaglyphMethod();
+		for(AnaglyphMethod am : AnaglyphMethod.values()) {
+			JMenuItem mimethod = setACAndText(new JRadioButtonMenuItem(imageAction), acAnaglyphMethod, anaglyphMethodNames[am.ordinal()], null);
+			mimethod.putClientProperty(dAMethod, am);
+			ametbg.add(mimethod);
+			if(ametset == am)
+				mimethod.setSelected(true);
+			anaglyphMethodSub.add(mimethod);
+		}
+		
+		imageMenu.add(anaglyphMethodSub);
+		
 		imageMenu.add(setACAndText(new JMenuItem(imageAction), acHGap, "Horz. Gap...", 'G'));
 		imageMenu.add(setACAndText(new JMenuItem(imageAction), acHBorder, "Horz. Border...", 'H'));
 		imageMenu.add(setACAndText(new JMenuItem(imageAction), acVBorder, "Vert. Border...", 'V'));
@@ -1137,7 +2494,6 @@ public class SSMV implements Runnable {
 		frame.setSize(640, 480);
 		frame.setVisible(true);
 		
-		new DynamicResizeThread();
 	}
 	
 	private JFrame aboutWindow;
@@ -1161,6 +2517,16 @@ public class SSMV implements Runnable {
 	}
 	
 	public static void main(String...args) {
+		if(args.length > 0 && args[0].equals("--batch")) {
+			// must be set before the first AWT class is loaded
+			System.setProperty("java.awt.headless", "true");
+			System.exit(BatchConverter.run(Arrays.copyOfRange(args, 1, args.length)));
+		}
+		if(args.length > 0 && args[0].equals("--watch")) {
+			System.setProperty("java.awt.headless", "true");
+			System.exit(WatchDaemon.run(Arrays.copyOfRange(args, 1, args.length)));
+		}
+		
 		EventQueue.invokeLater(new SSMV());
 	}
 }
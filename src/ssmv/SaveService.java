@@ -0,0 +1,297 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.EventQueue;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Saves images in the background, one after the other.
+ * Every file is written under a temporary name in the target directory and
+ * renamed when it is complete, so a failed or interrupted save never leaves
+ * a broken file behind.
+ */
+public class SaveService {
+	
+	/**
+	 * Encoder settings
+	 */
+	public static class Settings {
+		private final float jpegQuality;
+		private final int pngCompression;
+		
+		/**
+		 * @param jpegQuality 0.0 to 1.0
+		 * @param pngCompression deflate level 0 (none) to 9 (best)
+		 */
+		public Settings(float jpegQuality, int pngCompression) {
+			this.jpegQuality = Math.max(0f, Math.min(1f, jpegQuality));
+			this.pngCompression = Math.max(0, Math.min(9, pngCompression));
+		}
+		
+		public float getJPEGQuality() {
+			return jpegQuality;
+		}
+		
+		public int getPNGCompression() {
+			return pngCompression;
+		}
+	}
+	
+	public static final Settings DEFAULT_SETTINGS = new Settings(0.92f, 4);
+	
+	/**
+	 * Called on the EDT
+	 */
+	public static interface Listener {
+		public void saveStarted(File f, int queued);
+		public void saveProgress(File f, int percent);
+		public void saveFinished(File f, Throwable error, int queued);
+	}
+	
+	public static interface Progress {
+		public void progress(int percent);
+	}
+	
+	/**
+	 * Writes the complete file to the given temporary file
+	 */
+	public static interface Writer {
+		public void write(File tmp, Progress progress) throws IOException;
+	}
+	
+	private final Listener listener;
+	
+	private final AtomicInteger queued = new AtomicInteger();
+	
+	// not a daemon so queued saves finish when the window is closed, the idle thread ends after a second
+	private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			return new Thread(r, "SSMV-Save");
+		}
+	});
+	
+	public SaveService(Listener listener) {
+		this.listener = listener;
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	public int getQueued() {
+		return queued.get();
+	}
+	
+	/**
+	 * Queues writing a file
+	 */
+	public void submit(final File target, final Writer writer) {
+		queued.incrementAndGet();
+		
+		executor.execute(new Runnable() {
+			public void run() {
+				final int left = queued.get();
+				EventQueue.invokeLater(new Runnable() {
+					public void run() {
+						listener.saveStarted(target, left);
+					}
+				});
+				
+				Throwable error = null;
+				try {
+					writeAtomically(target, writer, new Progress() {
+						private int last = -1;
+						
+						public void progress(final int percent) {
+							if(percent == last)
+								return;
+							last = percent;
+							EventQueue.invokeLater(new Runnable() {
+								public void run() {
+									listener.saveProgress(target, percent);
+								}
+							});
+						}
+					});
+				} catch (Exception e) {
+					error = e;
+				} catch (OutOfMemoryError e) {
+					error = e;
+				}
+				
+				final Throwable result = error;
+				final int remaining = queued.decrementAndGet();
+				EventQueue.invokeLater(new Runnable() {
+					public void run() {
+						listener.saveFinished(target, result, remaining);
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Queues saving an image, the image is created in the background as well
+	 */
+	public void submitImage(File target, final Callable<BufferedImage> image, final Settings settings) {
+		final String format = SSMV.getExt(target.getName());
+		submit(target, new Writer() {
+			public void write(File tmp, Progress progress) throws IOException {
+				BufferedImage bi;
+				try {
+					bi = image.call();
+				} catch (IOException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException(e);
+				}
+				writeImage(bi, tmp, format, settings, progress);
+			}
+		});
+	}
+	
+	/**
+	 * Writes to a temporary file next to the target and renames it.
+	 */
+	public static void writeAtomically(File target, Writer writer, Progress progress) throws IOException {
+		File dir = target.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile("." + target.getName(), ".tmp", dir);
+		
+		boolean done = false;
+		try {
+			writer.write(tmp, progress);
+			
+			try {
+				Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			done = true;
+		} finally {
+			if(!done)
+				tmp.delete();
+		}
+	}
+	
+	/**
+	 * @return true if there is an encoder for files with this extension
+	 */
+	public static boolean canWrite(String format) {
+		return ImageIO.getImageWritersBySuffix(format.toLowerCase(Locale.ENGLISH)).hasNext();
+	}
+	
+	/**
+	 * Encodes the image into the file (no temporary file).
+	 * 
+	 * @param format file extension of the format
+	 * @param progress may be null
+	 */
+	public static void writeImage(BufferedImage bi, File f, String format, Settings settings, final Progress progress) throws IOException {
+		format = format.toLowerCase(Locale.ENGLISH);
+		
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix(format);
+		if(!writers.hasNext())
+			throw new IOException("Extension '" + format + "' is not supported!");
+		
+		boolean jpeg = format.equals("jpg") || format.equals("jpeg");
+		boolean png = format.equals("png");
+		
+		// JPEG has no alpha channel
+		if(jpeg && SSMV.hasTransparency(bi)) {
+			BufferedImage rgb = IntRaster.createIntImage(bi.getWidth(), bi.getHeight(), false);
+			rgb.createGraphics().drawImage(bi, 0, 0, null);
+			bi = rgb;
+		}
+		
+		ImageWriter writer = writers.next();
+		try {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			
+			if(param.canWriteCompressed() && (jpeg || png)) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				if(jpeg) {
+					param.setCompressionQuality(settings.getJPEGQuality());
+				} else {
+					// the PNG writer maps quality 1.0 to no compression and 0.0 to the best
+					param.setCompressionQuality(1f - settings.getPNGCompression() / 9f);
+				}
+			}
+			
+			if(progress != null) {
+				writer.addIIOWriteProgressListener(new IIOWriteProgressListener() {
+					public void imageStarted(ImageWriter source, int imageIndex) {
+						progress.progress(0);
+					}
+					public void imageProgress(ImageWriter source, float percentageDone) {
+						progress.progress(Math.round(percentageDone));
+					}
+					public void imageComplete(ImageWriter source) {
+						progress.progress(100);
+					}
+					public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+					}
+					public void thumbnailProgress(ImageWriter source, float percentageDone) {
+					}
+					public void thumbnailComplete(ImageWriter source) {
+					}
+					public void writeAborted(ImageWriter source) {
+					}
+				});
+			}
+			
+			if(f.exists())
+				f.delete();
+			
+			ImageOutputStream ios = ImageIO.createImageOutputStream(f);
+			if(ios == null)
+				throw new IOException("Can not write to " + f);
+			try {
+				writer.setOutput(ios);
+				writer.write(null, new IIOImage(bi, null, null), param);
+			} finally {
+				ios.close();
+			}
+		} finally {
+			writer.dispose();
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * How the two views are arranged in a single side-by-side (JPS) image.
+ * <p>
+ * Cross-eyed JPS files store the right eye view in the left half, which is
+ * why {@link #SideBySideRL} is the default. The half variants are anamorphic:
+ * each view was squeezed to half its width (or height) and is stretched back
+ * when loading.
+ */
+public enum SideBySideLayout {
+	SideBySideRL("Side-by-Side (Right/Left)", false, false, false),
+	SideBySideLR("Side-by-Side (Left/Right)", false, true, false),
+	HalfSideBySideRL("Half Side-by-Side (Right/Left)", false, false, true),
+	HalfSideBySideLR("Half Side-by-Side (Left/Right)", false, true, true),
+	OverUnderLR("Over/Under (Left on top)", true, true, false),
+	OverUnderRL("Over/Under (Right on top)", true, false, false),
+	HalfOverUnderLR("Half Over/Under (Left on top)", true, true, true),
+	HalfOverUnderRL("Half Over/Under (Right on top)", true, false, true);
+	
+	public static final SideBySideLayout DEFAULT = SideBySideRL;
+	
+	private final String description;
+	private final boolean overUnder;
+	private final boolean leftFirst;
+	private final boolean half;
+	
+	private SideBySideLayout(String description, boolean overUnder, boolean leftFirst, boolean half) {
+		this.description = description;
+		this.overUnder = overUnder;
+		this.leftFirst = leftFirst;
+		this.half = half;
+	}
+	
+	public String getDescription() {
+		return description;
+	}
+	
+	public boolean isOverUnder() {
+		return overUnder;
+	}
+	
+	/**
+	 * @return true if the left eye view is stored in the left (or top) half
+	 */
+	public boolean isLeftFirst() {
+		return leftFirst;
+	}
+	
+	public boolean isAnamorphic() {
+		return half;
+	}
+	
+	/**
+	 * @return the size of one view in the file, after undoing the anamorphic squeeze
+	 */
+	public Dimension getViewSize(int width, int height) {
+		if(overUnder)
+			return new Dimension(width, half ? height / 2 * 2 : height / 2);
+		return new Dimension(half ? width / 2 * 2 : width / 2, height);
+	}
+	
+	/**
+	 * @return the areas of the left and the right eye view in an image of the given size
+	 */
+	public Rectangle [] getRegions(int w, int h) {
+		Rectangle first;
+		Rectangle second;
+		
+		if(overUnder) {
+			int vh = h / 2;
+			first = new Rectangle(0, 0, w, vh);
+			second = new Rectangle(0, h - vh, w, vh);
+		} else {
+			int vw = w / 2;
+			first = new Rectangle(0, 0, vw, h);
+			second = new Rectangle(w - vw, 0, vw, h);
+		}
+		
+		return leftFirst ? new Rectangle [] { first, second } : new Rectangle [] { second, first };
+	}
+	
+	/**
+	 * Splits an image into its two views without copying any pixels.
+	 * The returned images share the raster of bi.
+	 * 
+	 * @return the left and the right eye view
+	 */
+	public BufferedImage [] split(BufferedImage bi) {
+		Rectangle [] r = getRegions(bi.getWidth(), bi.getHeight());
+		return new BufferedImage [] {
+			bi.getSubimage(r[0].x, r[0].y, r[0].width, r[0].height),
+			bi.getSubimage(r[1].x, r[1].y, r[1].width, r[1].height)
+		};
+	}
+	
+	public static SideBySideLayout forName(String name) {
+		for(SideBySideLayout l : values()) {
+			if(l.name().equalsIgnoreCase(name))
+				return l;
+		}
+		return null;
+	}
+	
+	@Override
+	public String toString() {
+		return description;
+	}
+}
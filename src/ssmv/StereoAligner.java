@@ -0,0 +1,486 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package ssmv;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Estimates the vertical offset and the rotation between the eyes by phase correlation.
+ * The images are reduced to gray pyramids, the coarse levels find the overall shift and
+ * patches across the image are refined on the two finest levels. Their vertical shift
+ * gives the offset, the change of the shift from left to right gives the rotation.
+ * Horizontal shifts are the stereo disparity and are left alone.
+ */
+public class StereoAligner {
+	
+	// the finest level is the image box filtered to about this size
+	private static final int FINE_SIZE = 2048;
+	
+	// no levels below this size
+	private static final int COARSE_SIZE = 256;
+	
+	// window for the overall shift
+	private static final int GLOBAL_SIZE = 256;
+	
+	// patches follow their own disparity over this many levels
+	private static final int PATCH_LEVELS = 2;
+	private static final int PATCH_SIZE = 128;
+	private static final int PATCH_COLUMNS = 5;
+	private static final int PATCH_ROWS = 3;
+	
+	// weaker correlation peaks are taken as noise
+	private static final float MIN_PEAK = 0.03f;
+	
+	// fewer matching patches are not trusted
+	private static final int MIN_PATCHES = 3;
+	
+	// patches further off the fitted line (in pixels of the finest level) are outliers
+	private static final double MAX_RESIDUAL = 1.0;
+	
+	// smaller corrections (in source pixels) are not worth resampling
+	private static final double MIN_CORRECTION = 0.5;
+	
+	// anything larger is not a misalignment the correction could fix
+	private static final double MAX_OFFSET = 0.1;
+	private static final double MAX_ANGLE = Math.toRadians(3.0);
+	
+	private static class Gray {
+		final int width;
+		final int height;
+		final float [] data;
+		
+		Gray(int width, int height) {
+			this.width = width;
+			this.height = height;
+			this.data = new float [width * height];
+		}
+	}
+	
+	private static class Shift {
+		final double x;
+		final double y;
+		final float peak;
+		
+		Shift(double x, double y, float peak) {
+			this.x = x;
+			this.y = y;
+			this.peak = peak;
+		}
+	}
+	
+	private StereoAligner() {
+	}
+	
+	/**
+	 * @return the pair with the estimated alignment or the pair itself if there is nothing to correct
+	 */
+	public static StereoPair align(StereoPair pair) {
+		StereoAlignment a = estimate(pair.getLeft(), pair.getRight());
+		return a == null ? pair : pair.withAlignment(a);
+	}
+	
+	/**
+	 * @return the misalignment of the right image or null if it is negligible or could not be estimated
+	 */
+	public static StereoAlignment estimate(final BufferedImage left, final BufferedImage right) {
+		final int w = left.getWidth();
+		final int h = left.getHeight();
+		if(right.getWidth() != w || right.getHeight() != h)
+			return null;
+		
+		final int k = Math.max(1, (Math.max(w, h) + FINE_SIZE - 1) / FINE_SIZE);
+		final Gray [] fine = new Gray [2];
+		
+		RowBands.parallel(new Runnable() {
+			public void run() {
+				fine[0] = reduce(left, k);
+			}
+		}, new Runnable() {
+			public void run() {
+				fine[1] = reduce(right, k);
+			}
+		});
+		
+		if(Math.min(fine[0].width, fine[0].height) < 16)
+			return null;
+		
+		final List<Gray []> levels = new ArrayList<Gray []>();
+		levels.add(fine);
+		Gray [] coarser = fine;
+		while(Math.max(coarser[0].width, coarser[0].height) >= COARSE_SIZE * 2) {
+			coarser = new Gray [] { halve(coarser[0]), halve(coarser[1]) };
+			levels.add(coarser);
+		}
+		
+		final int patchLevels = Math.min(PATCH_LEVELS, levels.size());
+		
+		// overall shift, coarse to fine
+		double ex = 0, ey = 0;
+		for(int i=levels.size()-1; i>=patchLevels; i--) {
+			Gray l = levels.get(i)[0];
+			Gray r = levels.get(i)[1];
+			
+			int n = windowSize(Math.min(Math.min(l.width, l.height), GLOBAL_SIZE));
+			Shift s = correlate(l, r, (l.width - n) / 2, (l.height - n) / 2, n, ex, ey);
+			if(s.peak >= MIN_PEAK) {
+				ex = s.x;
+				ey = s.y;
+			}
+			ex *= 2;
+			ey *= 2;
+		}
+		
+		// shifts of patches across the image, each refined from the overall shift
+		final Gray top = levels.get(patchLevels - 1)[0];
+		final int n = windowSize(Math.min(Math.min(top.width / 3, top.height / 2), PATCH_SIZE));
+		final double gx = ex;
+		final double gy = ey;
+		
+		final int [] px = new int [PATCH_COLUMNS * PATCH_ROWS];
+		final Shift [] shifts = new Shift [px.length];
+		Runnable [] tasks = new Runnable [px.length];
+		
+		for(int i=0; i<px.length; i++) {
+			final int index = i;
+			// patch center as a fraction of the image
+			final double cx = (0.5 + (i % PATCH_COLUMNS)) / PATCH_COLUMNS;
+			final double cy = (0.5 + (i / PATCH_COLUMNS)) / PATCH_ROWS;
+			tasks[i] = new Runnable() {
+				public void run() {
+					double sx = gx, sy = gy;
+					for(int level=patchLevels-1; level>=0; level--) {
+						Gray l = levels.get(level)[0];
+						Gray r = levels.get(level)[1];
+						int x = Math.max(0, Math.min(l.width - n, (int)Math.round(cx * l.width) - n / 2));
+						int y = Math.max(0, Math.min(l.height - n, (int)Math.round(cy * l.height) - n / 2));
+						
+						Shift s = correlate(l, r, x, y, n, sx, sy);
+						if(level == 0) {
+							px[index] = x;
+							shifts[index] = s;
+						} else if(s.peak >= MIN_PEAK) {
+							sx = s.x * 2;
+							sy = s.y * 2;
+						} else {
+							sx *= 2;
+							sy *= 2;
+						}
+					}
+				}
+			};
+		}
+		
+		RowBands.parallel(tasks);
+		
+		int width = fine[0].width;
+		
+		// dy = offset + slope * (x - center), fitted twice without the outliers of the first fit
+		boolean [] used = new boolean [shifts.length];
+		for(int i=0; i<shifts.length; i++)
+			used[i] = shifts[i].peak >= MIN_PEAK;
+		
+		double [] fit = null;
+		for(int pass=0; pass<2; pass++) {
+			fit = fitLine(shifts, px, n, width, used);
+			if(fit == null)
+				return null;
+			
+			// too little texture for a trustworthy estimate
+			int count = 0;
+			for(boolean u : used)
+				count += u ? 1 : 0;
+			if(count < MIN_PATCHES)
+				return null;
+			
+			for(int i=0; i<shifts.length; i++) {
+				double x = px[i] + n / 2.0 - width / 2.0;
+				if(used[i] && Math.abs(shifts[i].y - (fit[0] + fit[1] * x)) > MAX_RESIDUAL)
+					used[i] = false;
+			}
+		}
+		
+		double offset = fit[0] * k;
+		double angle = Math.atan(fit[1]);
+		
+		if(Math.abs(offset) < MIN_CORRECTION && Math.abs(angle) * w / 2.0 < MIN_CORRECTION)
+			return null;
+		if(Math.abs(offset) > MAX_OFFSET * h || Math.abs(angle) > MAX_ANGLE)
+			return null;
+		
+		return new StereoAlignment(offset / h, angle);
+	}
+	
+	/**
+	 * Weighted by the correlation peaks. With patches in one column only the offset is fitted.
+	 * 
+	 * @return offset and slope or null if no patch is used
+	 */
+	private static double [] fitLine(Shift [] shifts, int [] px, int n, int width, boolean [] used) {
+		double sw = 0, sx = 0, sy = 0, sxx = 0, sxy = 0;
+		for(int i=0; i<shifts.length; i++) {
+			if(!used[i])
+				continue;
+			double x = px[i] + n / 2.0 - width / 2.0;
+			double wt = shifts[i].peak;
+			sw += wt;
+			sx += wt * x;
+			sy += wt * shifts[i].y;
+			sxx += wt * x * x;
+			sxy += wt * x * shifts[i].y;
+		}
+		
+		if(sw == 0)
+			return null;
+		
+		double det = sw * sxx - sx * sx;
+		// all patches at (almost) the same x
+		if(det <= 1e-6 * sw * sw * width * width)
+			return new double [] { sy / sw, 0 };
+		
+		double slope = (sw * sxy - sx * sy) / det;
+		return new double [] { (sy - slope * sx) / sw, slope };
+	}
+	
+	/**
+	 * @return the largest power of two that is not larger than size
+	 */
+	private static int windowSize(int size) {
+		return Integer.highestOneBit(Math.max(2, size));
+	}
+	
+	/**
+	 * Gray image with the average of k x k blocks of pixels.
+	 */
+	private static Gray reduce(BufferedImage bi, final int k) {
+		final IntRaster s = IntRaster.of(IntRaster.toIntImage(bi));
+		final Gray g = new Gray(s.width / k, s.height / k);
+		final float norm = 1.0f / (256 * k * k);
+		
+		RowBands.run(g.width, g.height, new RowBands.Rows() {
+			public void process(int y0, int y1) {
+				int [] sd = s.data;
+				int [] acc = new int [g.width];
+				
+				for(int y=y0; y<y1; y++) {
+					Arrays.fill(acc, 0);
+					
+					for(int j=0; j<k; j++) {
+						int si = s.index(0, y * k + j);
+						for(int x=0; x<g.width; x++) {
+							int sum = 0;
+							for(int i=0; i<k; i++, si++) {
+								int p = sd[si];
+								sum += ((p >> 16) & 0xFF) * 77 + ((p >> 8) & 0xFF) * 150 + (p & 0xFF) * 29;
+							}
+							acc[x] += sum;
+						}
+					}
+					
+					int gi = y * g.width;
+					for(int x=0; x<g.width; x++)
+						g.data[gi + x] = acc[x] * norm;
+				}
+			}
+		});
+		
+		return g;
+	}
+	
+	private static Gray halve(Gray g) {
+		Gray h = new Gray(g.width / 2, g.height / 2);
+		for(int y=0; y<h.height; y++) {
+			int s0 = 2 * y * g.width;
+			int s1 = s0 + g.width;
+			int d = y * h.width;
+			for(int x=0; x<h.width; x++)
+				h.data[d + x] = (g.data[s0 + 2*x] + g.data[s0 + 2*x + 1] + g.data[s1 + 2*x] + g.data[s1 + 2*x + 1]) * 0.25f;
+		}
+		return h;
+	}
+	
+	/**
+	 * Phase correlation of the n x n window of a at (ax,ay) and the window of b that is
+	 * displaced by the expected shift.
+	 * 
+	 * @return the shift of the content from a to b (b(p) = a(p - shift)) and the height of the correlation peak
+	 */
+	private static Shift correlate(Gray a, Gray b, int ax, int ay, int n, double ex, double ey) {
+		int bx = Math.max(0, Math.min(b.width - n, ax + (int)Math.round(ex)));
+		int by = Math.max(0, Math.min(b.height - n, ay + (int)Math.round(ey)));
+		
+		float [] cos = new float [n / 2];
+		float [] sin = new float [n / 2];
+		for(int i=0; i<n/2; i++) {
+			cos[i] = (float)Math.cos(2.0 * Math.PI * i / n);
+			sin[i] = (float)Math.sin(2.0 * Math.PI * i / n);
+		}
+		
+		// both real windows are transformed at once as a + ib
+		float [] zr = window(a, ax, ay, n);
+		float [] zi = window(b, bx, by, n);
+		
+		fft2(zr, zi, n, cos, sin, false);
+		
+		// normalized cross power spectrum conj(A) * B with A = (Z(k) + conj(Z(-k))) / 2, B = (Z(k) - conj(Z(-k))) / 2i
+		int mask = n - 1;
+		float [] cr = new float [n * n];
+		float [] ci = new float [n * n];
+		for(int v=0; v<n; v++) {
+			for(int u=0; u<n; u++) {
+				int k = v * n + u;
+				int m = ((n - v) & mask) * n + ((n - u) & mask);
+				
+				float ar = zr[k] + zr[m];
+				float ai = zi[k] - zi[m];
+				float br = zi[k] + zi[m];
+				float bi = zr[m] - zr[k];
+				
+				float re = ar * br + ai * bi;
+				float im = ar * bi - ai * br;
+				float mag = (float)Math.sqrt(re * re + im * im);
+				if(mag > 1e-9f) {
+					cr[k] = re / mag;
+					ci[k] = im / mag;
+				}
+			}
+		}
+		
+		fft2(cr, ci, n, cos, sin, true);
+		
+		int peak = 0;
+		for(int i=1; i<cr.length; i++) {
+			if(cr[i] > cr[peak])
+				peak = i;
+		}
+		
+		int x = peak % n;
+		int y = peak / n;
+		
+		double sx = x + subpixel(cr[y * n + ((x - 1) & mask)], cr[peak], cr[y * n + ((x + 1) & mask)]);
+		double sy = y + subpixel(cr[((y - 1) & mask) * n + x], cr[peak], cr[((y + 1) & mask) * n + x]);
+		
+		// the correlation is cyclic
+		if(sx > n / 2)
+			sx -= n;
+		if(sy > n / 2)
+			sy -= n;
+		
+		return new Shift(bx - ax + sx, by - ay + sy, cr[peak]);
+	}
+	
+	/**
+	 * @return the position of the vertex of the parabola through the three values relative to the center
+	 */
+	private static double subpixel(float l, float c, float r) {
+		double d = l - 2.0 * c + r;
+		if(d >= 0)
+			return 0;
+		return Math.max(-0.5, Math.min(0.5, 0.5 * (l - r) / d));
+	}
+	
+	/**
+	 * @return the window without its mean, faded out towards the borders (Hann)
+	 */
+	private static float [] window(Gray g, int x0, int y0, int n) {
+		float [] w = new float [n * n];
+		
+		double sum = 0;
+		for(int y=0; y<n; y++) {
+			int si = (y0 + y) * g.width + x0;
+			for(int x=0; x<n; x++)
+				sum += g.data[si + x];
+		}
+		float mean = (float)(sum / (n * n));
+		
+		float [] hann = new float [n];
+		for(int i=0; i<n; i++)
+			hann[i] = (float)(0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / (n - 1)));
+		
+		for(int y=0; y<n; y++) {
+			int si = (y0 + y) * g.width + x0;
+			for(int x=0; x<n; x++)
+				w[y * n + x] = (g.data[si + x] - mean) * hann[x] * hann[y];
+		}
+		
+		return w;
+	}
+	
+	/**
+	 * In place 2D FFT of an n x n array, the inverse is scaled by 1 / (n * n).
+	 */
+	private static void fft2(float [] re, float [] im, int n, float [] cos, float [] sin, boolean inverse) {
+		for(int y=0; y<n; y++)
+			fft(re, im, y * n, 1, n, cos, sin, inverse);
+		for(int x=0; x<n; x++)
+			fft(re, im, x, n, n, cos, sin, inverse);
+		
+		if(inverse) {
+			float scale = 1.0f / (n * n);
+			for(int i=0; i<re.length; i++) {
+				re[i] *= scale;
+				im[i] *= scale;
+			}
+		}
+	}
+	
+	/**
+	 * Iterative radix-2 FFT of the n values at off, off + stride, ...
+	 */
+	private static void fft(float [] re, float [] im, int off, int stride, int n, float [] cos, float [] sin, boolean inverse) {
+		for(int i=1, j=0; i<n; i++) {
+			int bit = n >> 1;
+			for(; (j & bit) != 0; bit >>= 1)
+				j ^= bit;
+			j ^= bit;
+			
+			if(i < j) {
+				int p = off + i * stride;
+				int q = off + j * stride;
+				float t = re[p]; re[p] = re[q]; re[q] = t;
+				t = im[p]; im[p] = im[q]; im[q] = t;
+			}
+		}
+		
+		for(int len=2; len<=n; len<<=1) {
+			int half = len >> 1;
+			int step = n / len;
+			for(int i=0; i<n; i+=len) {
+				for(int k=0; k<half; k++) {
+					float wr = cos[k * step];
+					float wi = inverse ? sin[k * step] : -sin[k * step];
+					int p = off + (i + k) * stride;
+					int q = p + half * stride;
+					float xr = re[q] * wr - im[q] * wi;
+					float xi = re[q] * wi + im[q] * wr;
+					re[q] = re[p] - xr;
+					im[q] = im[p] - xi;
+					re[p] += xr;
+					im[p] += xi;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package ssmv;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferedImage;
+
+/**
+ * Vertical offset and rotation of the right image relative to the left one.
+ * The values are independent of the resolution, so the correction works
+ * for previews, scaled images and the full resolution alike.
+ */
+public class StereoAlignment {
+	
+	private final double offsetY;
+	private final double angle;
+	
+	/**
+	 * @param offsetY vertical offset of the right image as a fraction of the height (positive is down)
+	 * @param angle rotation of the right image around its center in radians (positive is clockwise)
+	 */
+	public StereoAlignment(double offsetY, double angle) {
+		this.offsetY = offsetY;
+		this.angle = angle;
+	}
+	
+	public double getOffsetY() {
+		return offsetY;
+	}
+	
+	public double getAngle() {
+		return angle;
+	}
+	
+	/**
+	 * @return the transform that moves the right image of the given size onto the left one
+	 */
+	public AffineTransform getCorrection(double w, double h) {
+		AffineTransform t = AffineTransform.getRotateInstance(-angle, w / 2.0, h / 2.0);
+		t.translate(0, -offsetY * h);
+		return t;
+	}
+	
+	/**
+	 * @return the image itself if there is nothing to correct, otherwise a corrected copy
+	 */
+	public static BufferedImage apply(StereoAlignment alignment, BufferedImage image) {
+		return alignment == null ? image : alignment.apply(image, null);
+	}
+	
+	/**
+	 * Resamples the image with the correction (bilinear), pixels moved in from outside
+	 * the image are black. The destination is reused if it fits.
+	 */
+	public BufferedImage apply(BufferedImage src, BufferedImage dst) {
+		dst = AnaglyphEngine.prepareDestination(src, dst);
+		apply(src, 0, src.getWidth(), src.getHeight(), 0, dst);
+		return dst;
+	}
+	
+	private AffineTransform getInverse(double w, double h) {
+		try {
+			return getCorrection(w, h).createInverse();
+		} catch (NoninvertibleTransformException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * @return the rows of the image of the given size that are needed for the corrected
+	 * rows y to y+h-1, empty if they are all moved in from outside
+	 */
+	public Rectangle getSourceRows(int y, int h, int width, int height) {
+		AffineTransform inverse = getInverse(width, height);
+		
+		double [] corners = { 0, y, width, y, 0, y + h, width, y + h };
+		inverse.transform(corners, 0, corners, 0, 4);
+		
+		double minY = Math.min(Math.min(corners[1], corners[3]), Math.min(corners[5], corners[7]));
+		double maxY = Math.max(Math.max(corners[1], corners[3]), Math.max(corners[5], corners[7]));
+		
+		// the bilinear filter reaches one row further
+		int y0 = Math.max(0, (int)Math.floor(minY) - 1);
+		int y1 = Math.min(height, (int)Math.ceil(maxY) + 1);
+		return new Rectangle(0, y0, width, Math.max(0, y1 - y0));
+	}
+	
+	/**
+	 * Resamples a band of the image with the correction.
+	 * 
+	 * @param src the rows srcY and following of the uncorrected image
+	 * @param width width of the whole image
+	 * @param height height of the whole image
+	 * @param dstY first row of the corrected image written to dst, all rows of dst are written
+	 */
+	public void apply(BufferedImage src, final int srcY, int width, int height, final int dstY, BufferedImage dst) {
+		final IntRaster s = IntRaster.of(IntRaster.toIntImage(src));
+		final IntRaster d = IntRaster.of(dst);
+		
+		final AffineTransform inverse = getInverse(width, height);
+		
+		final int w = d.width;
+		final int maxX = width - 1;
+		final int maxY = height - 1;
+		// rows outside of the band are clamped into it, the band covers all rows that are needed
+		final int lastY = srcY + s.height - 1;
+		
+		RowBands.run(w, d.height, new RowBands.Rows() {
+			public void process(int y0, int y1) {
+				int [] sd = s.data;
+				int [] dd = d.data;
+				
+				double m00 = inverse.getScaleX(), m01 = inverse.getShearX(), m02 = inverse.getTranslateX();
+				double m10 = inverse.getShearY(), m11 = inverse.getScaleY(), m12 = inverse.getTranslateY();
+				
+				for(int y=y0; y<y1; y++) {
+					int di = d.index(0, y);
+					
+					// pixel centers
+					double cy = dstY + y + 0.5;
+					double sx = m00 * 0.5 + m01 * cy + m02 - 0.5;
+					double sy = m10 * 0.5 + m11 * cy + m12 - 0.5;
+					
+					for(int x=0; x<w; x++, sx += m00, sy += m10) {
+						if(sx < -0.5 || sy < -0.5 || sx > maxX + 0.5 || sy > maxY + 0.5) {
+							dd[di + x] = 0;
+							continue;
+						}
+						
+						int ix = (int)Math.floor(sx);
+						int iy = (int)Math.floor(sy);
+						int fx = (int)((sx - ix) * 256);
+						int fy = (int)((sy - iy) * 256);
+						
+						int x0 = Math.max(0, ix), x1 = Math.min(maxX, ix + 1);
+						int r0 = s.index(0, Math.min(lastY, Math.max(srcY, iy)) - srcY);
+						int r1 = s.index(0, Math.min(lastY, Math.max(srcY, iy + 1)) - srcY);
+						
+						dd[di + x] = lerp(lerp(sd[r0 + x0], sd[r0 + x1], fx), lerp(sd[r1 + x0], sd[r1 + x1], fx), fy);
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * @param f weight of b in 1/256
+	 */
+	private static int lerp(int a, int b, int f) {
+		if(a == b)
+			return a;
+		
+		int g = 256 - f;
+		int ag = (((a >>> 8) & 0x00FF00FF) * g + ((b >>> 8) & 0x00FF00FF) * f) & 0xFF00FF00;
+		int rb = (((a & 0x00FF00FF) * g + (b & 0x00FF00FF) * f) >>> 8) & 0x00FF00FF;
+		return ag | rb;
+	}
+}
@@ -0,0 +1,436 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package ssmv;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Loads stereo pairs from MPO and side-by-side files.
+ * Files are memory mapped and the images are decoded straight from the
+ * mapping so the raw file data never ends up on the heap.
+ * The two images of an MPO file are decoded in parallel.
+ * Images are decoded straight into INT_RGB where the reader supports it,
+ * all others are converted to INT_RGB or INT_ARGB once after decoding.
+ */
+public class StereoLoader {
+	
+	private static final int decodeThreads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	
+	private static final ExecutorService decodePool = Executors.newFixedThreadPool(decodeThreads, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SSMV-Decoder-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	private StereoLoader() {
+	}
+	
+	public static ByteBuffer map(File f) throws IOException {
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			FileChannel fc = fis.getChannel();
+			long size = fc.size();
+			
+			if(size > Integer.MAX_VALUE)
+				throw new IOException("File is too large!");
+			
+			// the mapping stays valid after the channel is closed
+			return fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			fis.close();
+		}
+	}
+	
+	public static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+		ByteBuffer dup = data.duplicate();
+		dup.position(offset);
+		dup.limit(offset + length);
+		return dup.slice();
+	}
+	
+	private static boolean isJPEGHeader(ByteBuffer data, int offset) {
+		if(offset < 0)
+			return false;
+		
+		if( (offset+3) >= data.limit())
+			return false;
+		
+		return (data.get(offset) == (byte)0xFF) && (data.get(offset+1) == (byte)0xD8);
+	}
+	
+	static ImageReader getReader(ImageInputStream iis) throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+		if(!readers.hasNext())
+			throw new IOException("Unsupported image format!");
+		
+		ImageReader reader = readers.next();
+		reader.setInput(iis, true, true);
+		return reader;
+	}
+	
+	/**
+	 * Lets the reader decode into an INT_RGB image if it offers that type,
+	 * so the decoded pixels do not have to be converted into a second copy.
+	 */
+	static void decodeToInt(ImageReader reader, ImageReadParam param) throws IOException {
+		Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+		while(types.hasNext()) {
+			ImageTypeSpecifier type = types.next();
+			if(type.getBufferedImageType() == BufferedImage.TYPE_INT_RGB) {
+				param.setDestinationType(type);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Reads only the header of the image
+	 */
+	public static Dimension readSize(ByteBuffer data) throws IOException {
+		ImageInputStream iis = new ByteBufferImageInputStream(data);
+		try {
+			ImageReader reader = getReader(iis);
+			try {
+				return new Dimension(reader.getWidth(0), reader.getHeight(0));
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			iis.close();
+		}
+	}
+	
+	/**
+	 * Computes the largest subsampling factor that still yields an image
+	 * at least as large as an image of the given size scaled to fit into maxSize.
+	 * 
+	 * @param maxSize target size or null for full resolution
+	 */
+	public static int getSubsampling(int width, int height, Dimension maxSize) {
+		if(maxSize == null || maxSize.width <= 0 || maxSize.height <= 0)
+			return 1;
+		
+		return Math.max(1, Math.max(width / maxSize.width, height / maxSize.height));
+	}
+	
+	/**
+	 * Computes the smallest subsampling factor at which both eyes of the given size
+	 * take no more than maxBytes as INT images.
+	 * 
+	 * @param maxBytes memory limit or 0 for no limit
+	 */
+	public static int getSubsampling(int width, int height, long maxBytes) {
+		if(maxBytes <= 0)
+			return 1;
+		
+		int subsampling = 1;
+		while(pairBytes(width, height, subsampling) > maxBytes && (width > subsampling || height > subsampling))
+			subsampling++;
+		return subsampling;
+	}
+	
+	private static long pairBytes(int width, int height, int subsampling) {
+		return 2L * 4L * ((width + subsampling - 1) / subsampling) * ((height + subsampling - 1) / subsampling);
+	}
+	
+	private static BufferedImage readImage(ImageInputStream iis, LoadTask task, int part, int subsampling) throws IOException {
+		ImageReader reader = getReader(iis);
+		try {
+			if(task != null)
+				task.register(reader, part);
+			
+			ImageReadParam param = reader.getDefaultReadParam();
+			if(subsampling > 1)
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			decodeToInt(reader, param);
+			
+			BufferedImage bi = reader.read(0, param);
+			
+			// an aborted reader returns whatever it has decoded so far
+			if(task != null)
+				task.checkCancelled();
+			
+			// only formats the reader can not decode into INT_RGB are converted
+			return IntRaster.toIntImage(bi);
+		} finally {
+			if(task != null)
+				task.unregister(reader);
+			reader.dispose();
+		}
+	}
+	
+	public static BufferedImage readImage(ByteBuffer data, LoadTask task, int part, int subsampling) throws IOException {
+		if(task != null)
+			task.checkCancelled();
+		
+		ImageInputStream iis = new ByteBufferImageInputStream(data);
+		try {
+			return readImage(iis, task, part, subsampling);
+		} finally {
+			iis.close();
+		}
+	}
+	
+	public static BufferedImage readImage(ByteBuffer data) throws IOException {
+		return readImage(data, null, 0, 1);
+	}
+	
+	public static BufferedImage readImage(ByteBuffer data, int offset, int length, LoadTask task, int part, int subsampling) throws IOException {
+		return readImage(slice(data, offset, length), task, part, subsampling);
+	}
+	
+	private static Future<BufferedImage> submitRead(final ByteBuffer data, final int offset, final int length, final LoadTask task, final int part, final int subsampling) {
+		return decodePool.submit(new Callable<BufferedImage>() {
+			public BufferedImage call() throws IOException {
+				return readImage(data, offset, length, task, part, subsampling);
+			}
+		});
+	}
+	
+	private static BufferedImage join(Future<BufferedImage> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			f.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Loading was interrupted!");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if(cause instanceof Error)
+				throw (Error)cause;
+			throw new IOException(cause);
+		}
+	}
+	
+	public static StereoPair loadMPO(File f) throws IOException {
+		return loadMPO(f, null, null);
+	}
+	
+	/**
+	 * @param maxSize if not null, the images are subsampled while decoding to roughly fit this size
+	 */
+	public static StereoPair loadMPO(File f, LoadTask task, Dimension maxSize) throws IOException {
+		return loadMPO(map(f), task, maxSize, 0);
+	}
+	
+	/**
+	 * @param maxBytes if the full resolution images would need more memory, a tiled pair is returned
+	 */
+	public static StereoPair loadMPO(File f, LoadTask task, Dimension maxSize, long maxBytes) throws IOException {
+		return loadMPO(map(f), task, maxSize, maxBytes);
+	}
+	
+	public static StereoPair loadMPO(ByteBuffer data, LoadTask task, Dimension maxSize) throws IOException {
+		return loadMPO(data, task, maxSize, 0);
+	}
+	
+	public static StereoPair loadMPO(ByteBuffer data, LoadTask task, Dimension maxSize, long maxBytes) throws IOException {
+		if(!isJPEGHeader(data, 0))
+			throw new IOException("File does not contain JPEG data!");
+		
+		if(task != null)
+			task.setParts(2);
+		
+		BufferedImage fi;
+		BufferedImage si;
+		
+		MPOIndex index = MPOIndex.parse(data);
+		
+		Dimension size;
+		int subsampling;
+		boolean tiled;
+		ByteBuffer firstData;
+		ByteBuffer secondData;
+		
+		if(index != null) {
+			List<MPOIndex.Entry> images = index.getImageEntries();
+			if(images.size() < 2)
+				throw new IOException("File only contains one image...");
+			
+			MPOIndex.Entry first = images.get(0);
+			MPOIndex.Entry second = images.get(1);
+			
+			firstData = slice(data, first.getOffset(), first.getSize());
+			secondData = slice(data, second.getOffset(), second.getSize());
+			
+			size = readSize(firstData);
+			subsampling = getSubsampling(size.width, size.height, maxSize);
+			
+			// too large for memory, the preview is no larger than requested and fits, the tiles provide the detail
+			int limit = getSubsampling(size.width, size.height, maxBytes);
+			tiled = limit > 1;
+			if(tiled)
+				subsampling = Math.max(subsampling, limit);
+			
+			Future<BufferedImage> ff = submitRead(data, first.getOffset(), first.getSize(), task, 0, subsampling);
+			Future<BufferedImage> sf = submitRead(data, second.getOffset(), second.getSize(), task, 1, subsampling);
+			
+			try {
+				fi = join(ff);
+				si = join(sf);
+			} finally {
+				ff.cancel(true);
+				sf.cancel(true);
+			}
+		} else {
+			// no MPF segment - search for the start of the second image
+			int dataSize = data.limit();
+			
+			size = readSize(data);
+			subsampling = getSubsampling(size.width, size.height, maxSize);
+			
+			// too large for memory, the preview is no larger than requested and fits, the tiles provide the detail
+			int limit = getSubsampling(size.width, size.height, maxBytes);
+			tiled = limit > 1;
+			if(tiled)
+				subsampling = Math.max(subsampling, limit);
+			
+			ImageInputStream iis = new ByteBufferImageInputStream(data);
+			int firstSize;
+			try {
+				fi = readImage(iis, task, 0, subsampling);
+				firstSize = (int)iis.getStreamPosition();
+			} finally {
+				iis.close();
+			}
+			
+			int secondOffset = firstSize;
+			
+			while( (secondOffset > 0) && !isJPEGHeader(data, secondOffset) )
+				secondOffset--;
+	
+			if(secondOffset==0) {
+				secondOffset = firstSize+1;
+				while((secondOffset < dataSize) && !isJPEGHeader(data, secondOffset))
+					secondOffset++;
+			}
+			
+			if(secondOffset >= dataSize)
+				throw new IOException("No second image found!");
+			
+			firstData = slice(data, 0, firstSize);
+			secondData = slice(data, secondOffset, dataSize - secondOffset);
+			
+			si = readImage(secondData, task, 1, subsampling);
+		}
+		
+		if(fi.getWidth() != si.getWidth() || fi.getHeight() != si.getHeight())
+			throw new IOException("The two images differ in size!");
+		
+		if(tiled) {
+			Rectangle all = new Rectangle(size);
+			return new StereoPair(fi, si, size.width, size.height, new TiledImage(firstData, all), new TiledImage(secondData, all));
+		}
+		
+		return new StereoPair(fi, si, size.width, size.height);
+	}
+	
+	public static StereoPair loadSideBySide(File f) throws IOException {
+		return loadSideBySide(f, null, null, SideBySideLayout.DEFAULT);
+	}
+	
+	public static StereoPair loadSideBySide(File f, LoadTask task, Dimension maxSize) throws IOException {
+		return loadSideBySide(f, task, maxSize, SideBySideLayout.DEFAULT);
+	}
+	
+	/**
+	 * Loads a single image containing both views. The views of the returned pair are
+	 * sub-images sharing one raster, only anamorphic layouts need to be resampled.
+	 */
+	public static StereoPair loadSideBySide(File f, LoadTask task, Dimension maxSize, SideBySideLayout layout) throws IOException {
+		return loadSideBySide(f, task, maxSize, layout, 0);
+	}
+	
+	/**
+	 * @param maxBytes if the full resolution views would need more memory, a tiled pair
+	 * is returned (except for anamorphic layouts)
+	 */
+	public static StereoPair loadSideBySide(File f, LoadTask task, Dimension maxSize, SideBySideLayout layout, long maxBytes) throws IOException {
+		ByteBuffer data = map(f);
+		
+		Dimension size = readSize(data);
+		Dimension view = layout.getViewSize(size.width, size.height);
+		int subsampling = getSubsampling(view.width, view.height, maxSize);
+		
+		int limit = getSubsampling(view.width, view.height, maxBytes);
+		boolean tiled = !layout.isAnamorphic() && limit > 1;
+		if(tiled)
+			subsampling = Math.max(subsampling, limit);
+		
+		BufferedImage bi = readImage(data, task, 0, subsampling);
+		
+		if(layout.isOverUnder() ? bi.getHeight() < 2 : bi.getWidth() < 2)
+			throw new IOException("Image is only one pixel " + (layout.isOverUnder() ? "high" : "wide") + "! Can't use this...");
+		
+		BufferedImage [] views = layout.split(bi);
+		
+		if(layout.isAnamorphic()) {
+			int vw = views[0].getWidth();
+			int vh = views[0].getHeight();
+			if(layout.isOverUnder())
+				vh *= 2;
+			else
+				vw *= 2;
+			
+			views = ImageScaler.scalePair(views[0], views[1], vw, vh, ImageScaler.Quality.Progressive, null);
+		}
+		
+		if(tiled) {
+			Rectangle [] regions = layout.getRegions(size.width, size.height);
+			return new StereoPair(views[0], views[1], view.width, view.height, new TiledImage(data, regions[0]), new TiledImage(data, regions[1]));
+		}
+		
+		return new StereoPair(views[0], views[1], view.width, view.height);
+	}
+}
@@ -0,0 +1,130 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package ssmv;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * The decoded images for the left and the right eye.
+ */
+public class StereoPair {
+	
+	private final BufferedImage left;
+	private final BufferedImage right;
+	
+	private final int sourceWidth;
+	private final int sourceHeight;
+	
+	private final TiledImage leftTiles;
+	private final TiledImage rightTiles;
+	
+	private final StereoAlignment alignment;
+	
+	public StereoPair(BufferedImage left, BufferedImage right) {
+		this(left, right, left.getWidth(), left.getHeight());
+	}
+	
+	/**
+	 * @param sourceWidth width of one eye in the file (the images may be subsampled)
+	 * @param sourceHeight height of one eye in the file
+	 */
+	public StereoPair(BufferedImage left, BufferedImage right, int sourceWidth, int sourceHeight) {
+		this(left, right, sourceWidth, sourceHeight, null, null);
+	}
+	
+	/**
+	 * For images too large to be decoded at full resolution. The images are
+	 * the largest preview that fits into memory, the tiles provide the details.
+	 */
+	public StereoPair(BufferedImage left, BufferedImage right, int sourceWidth, int sourceHeight, TiledImage leftTiles, TiledImage rightTiles) {
+		this(left, right, sourceWidth, sourceHeight, leftTiles, rightTiles, null);
+	}
+	
+	private StereoPair(BufferedImage left, BufferedImage right, int sourceWidth, int sourceHeight, TiledImage leftTiles, TiledImage rightTiles, StereoAlignment alignment) {
+		this.left = left;
+		this.right = right;
+		this.sourceWidth = sourceWidth;
+		this.sourceHeight = sourceHeight;
+		this.leftTiles = leftTiles;
+		this.rightTiles = rightTiles;
+		this.alignment = alignment;
+	}
+	
+	/**
+	 * @return the same images with the misalignment of the right image
+	 */
+	public StereoPair withAlignment(StereoAlignment alignment) {
+		return new StereoPair(left, right, sourceWidth, sourceHeight, leftTiles, rightTiles, alignment);
+	}
+	
+	public BufferedImage getLeft() {
+		return left;
+	}
+	
+	public BufferedImage getRight() {
+		return right;
+	}
+	
+	public int getWidth() {
+		return left.getWidth();
+	}
+	
+	public int getHeight() {
+		return left.getHeight();
+	}
+	
+	public int getSourceWidth() {
+		return sourceWidth;
+	}
+	
+	public int getSourceHeight() {
+		return sourceHeight;
+	}
+	
+	public TiledImage getLeftTiles() {
+		return leftTiles;
+	}
+	
+	public TiledImage getRightTiles() {
+		return rightTiles;
+	}
+	
+	/**
+	 * @return the estimated misalignment of the right image or null if there is none
+	 */
+	public StereoAlignment getAlignment() {
+		return alignment;
+	}
+	
+	public boolean isTiled() {
+		return leftTiles != null;
+	}
+	
+	/**
+	 * @return true if the images were decoded with a lower resolution than available,
+	 * a tiled pair is never a preview as there is nothing more to decode
+	 */
+	public boolean isPreview() {
+		return !isTiled() && (getWidth() < sourceWidth || getHeight() < sourceHeight);
+	}
+}
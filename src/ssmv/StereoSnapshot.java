@@ -0,0 +1,224 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package ssmv;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Immutable state of the displayed images. A new snapshot is published
+ * for every change so readers always see a consistent pair.
+ */
+public class StereoSnapshot {
+	
+	private final StereoPair pair;
+	private final BufferedImage leftScaled;
+	private final BufferedImage rightScaled;
+	private final boolean swap;
+	private final boolean align;
+	private final long generation;
+	
+	public StereoSnapshot(StereoPair pair, BufferedImage leftScaled, BufferedImage rightScaled, boolean swap, boolean align, long generation) {
+		this.pair = pair;
+		this.leftScaled = leftScaled;
+		this.rightScaled = rightScaled;
+		this.swap = swap;
+		this.align = align;
+		this.generation = generation;
+	}
+	
+	public static StereoSnapshot empty(boolean swap, boolean align) {
+		return new StereoSnapshot(null, null, null, swap, align, 0);
+	}
+	
+	/**
+	 * @return a snapshot for a newly loaded pair, the scaled images are the originals until rescaled
+	 */
+	public StereoSnapshot withPair(StereoPair pair) {
+		return new StereoSnapshot(pair, pair.getLeft(), pair.getRight(), swap, align, generation + 1);
+	}
+	
+	public StereoSnapshot withScaled(BufferedImage leftScaled, BufferedImage rightScaled) {
+		return new StereoSnapshot(pair, leftScaled, rightScaled, swap, align, generation);
+	}
+	
+	public StereoSnapshot withSwap(boolean swap) {
+		return new StereoSnapshot(pair, leftScaled, rightScaled, swap, align, generation);
+	}
+	
+	public StereoSnapshot withAlign(boolean align) {
+		return new StereoSnapshot(pair, leftScaled, rightScaled, swap, align, generation);
+	}
+	
+	public boolean isValid() {
+		return pair != null;
+	}
+	
+	public StereoPair getPair() {
+		return pair;
+	}
+	
+	public boolean isSwap() {
+		return swap;
+	}
+	
+	public boolean isAlign() {
+		return align;
+	}
+	
+	/**
+	 * @return true if one of the eyes is shown with an alignment correction
+	 */
+	public boolean isAligned() {
+		return align && pair.getAlignment() != null;
+	}
+	
+	/**
+	 * @return the correction for the image of the left eye (swap applied) or null
+	 */
+	public StereoAlignment getLeftAlignment() {
+		return isAligned() && swap ? pair.getAlignment() : null;
+	}
+	
+	public StereoAlignment getRightAlignment() {
+		return isAligned() && !swap ? pair.getAlignment() : null;
+	}
+	
+	/**
+	 * Incremented for every loaded pair
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+	
+	public boolean isScaled() {
+		return leftScaled != pair.getLeft();
+	}
+	
+	public BufferedImage getLeftScaled() {
+		return leftScaled;
+	}
+	
+	public BufferedImage getRightScaled() {
+		return rightScaled;
+	}
+	
+	/**
+	 * @return the displayed image for the left eye (swap applied)
+	 */
+	public BufferedImage getLeft() {
+		return swap ? rightScaled : leftScaled;
+	}
+	
+	public BufferedImage getRight() {
+		return swap ? leftScaled : rightScaled;
+	}
+	
+	/**
+	 * @return the unscaled image for the left eye (swap applied)
+	 */
+	public BufferedImage getLeftSource() {
+		return swap ? pair.getRight() : pair.getLeft();
+	}
+	
+	public BufferedImage getRightSource() {
+		return swap ? pair.getLeft() : pair.getRight();
+	}
+	
+	/**
+	 * Builds an image from the full resolution images of both eyes
+	 */
+	public static interface Combination {
+		/**
+		 * @param y first row of the images, tiled pairs are combined band by band
+		 */
+		public BufferedImage combine(BufferedImage left, BufferedImage right, int y);
+	}
+	
+	private TiledImage getLeftTiles() {
+		return swap ? pair.getRightTiles() : pair.getLeftTiles();
+	}
+	
+	private TiledImage getRightTiles() {
+		return swap ? pair.getLeftTiles() : pair.getRightTiles();
+	}
+	
+	/**
+	 * @return the full resolution image for the left eye with the alignment correction, a copy if it is corrected.
+	 * Tiled pairs only hold a preview, the image is decoded again band by band while it is written.
+	 */
+	public BufferedImage createLeftAligned() throws IOException {
+		if(pair.isTiled())
+			return createBanded(getLeftTiles(), getLeftAlignment());
+		return StereoAlignment.apply(getLeftAlignment(), getLeftSource());
+	}
+	
+	public BufferedImage createRightAligned() throws IOException {
+		if(pair.isTiled())
+			return createBanded(getRightTiles(), getRightAlignment());
+		return StereoAlignment.apply(getRightAlignment(), getRightSource());
+	}
+	
+	/**
+	 * @return the combination of both aligned eyes, for tiled pairs it is created band by band while it is written
+	 */
+	public BufferedImage createCombined(final Combination combination) throws IOException {
+		if(!pair.isTiled())
+			return combination.combine(createLeftAligned(), createRightAligned(), 0);
+		
+		final TiledImage left = getLeftTiles();
+		final TiledImage right = getRightTiles();
+		final StereoAlignment leftAlignment = getLeftAlignment();
+		final StereoAlignment rightAlignment = getRightAlignment();
+		
+		return BandedImage.create(left.getWidth(), left.getHeight(), new BandedImage.Rows() {
+			public BufferedImage create(int y, int h) throws IOException {
+				return combination.combine(decodeRows(left, leftAlignment, y, h), decodeRows(right, rightAlignment, y, h), y);
+			}
+		});
+	}
+	
+	private static BufferedImage createBanded(final TiledImage tiles, final StereoAlignment alignment) throws IOException {
+		return BandedImage.create(tiles.getWidth(), tiles.getHeight(), new BandedImage.Rows() {
+			public BufferedImage create(int y, int h) throws IOException {
+				return decodeRows(tiles, alignment, y, h);
+			}
+		});
+	}
+	
+	private static BufferedImage decodeRows(TiledImage tiles, StereoAlignment alignment, int y, int h) throws IOException {
+		if(alignment == null)
+			return tiles.decodeRows(y, h);
+		
+		int w = tiles.getWidth();
+		BufferedImage dst = IntRaster.createIntImage(w, h, false);
+		
+		// rows that are moved in from outside stay black
+		Rectangle rows = alignment.getSourceRows(y, h, w, tiles.getHeight());
+		if(!rows.isEmpty())
+			alignment.apply(tiles.decodeRows(rows.y, rows.height), rows.y, w, tiles.getHeight(), y, dst);
+		
+		return dst;
+	}
+}
@@ -0,0 +1,273 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Small preview images of stereo files.
+ * Embedded thumbnails (EXIF or MPF large thumbnail) are used if present,
+ * the full image is only decoded (subsampled) if there are none.
+ * Generated thumbnails are kept in a directory on disk.
+ */
+public class Thumbnails {
+	
+	public static final int DEFAULT_SIZE = 128;
+	
+	private static final int TAG_JPEG_OFFSET = 0x0201;
+	private static final int TAG_JPEG_LENGTH = 0x0202;
+	
+	private static final byte [] EXIF_IDENTIFIER = { 'E', 'x', 'i', 'f', 0, 0 };
+	
+	private final File cacheDir;
+	private final int size;
+	
+	/**
+	 * @param cacheDir directory for the thumbnails, null disables the disk cache
+	 * @param size maximum width and height of a thumbnail
+	 */
+	public Thumbnails(File cacheDir, int size) {
+		this.cacheDir = cacheDir;
+		this.size = size;
+	}
+	
+	public static File getDefaultCacheDir() {
+		return new File(new File(System.getProperty("user.home"), ".ssmv"), "thumbnails");
+	}
+	
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * @return the thumbnail from the disk cache or a newly created one
+	 */
+	public BufferedImage get(File f) throws IOException {
+		File cached = getCacheFile(f);
+		
+		if(cached != null && cached.isFile()) {
+			BufferedImage bi = ImageIO.read(cached);
+			if(bi != null)
+				return bi;
+		}
+		
+		BufferedImage thumb = create(f);
+		
+		if(cached != null)
+			store(thumb, cached);
+		
+		return thumb;
+	}
+	
+	/**
+	 * Thumbnails are stored by a hash of path, file size and modification time.
+	 * A changed file gets a new entry.
+	 */
+	private File getCacheFile(File f) {
+		if(cacheDir == null)
+			return null;
+		
+		String key = f.getAbsolutePath() + '\0' + f.length() + '\0' + f.lastModified() + '\0' + size;
+		
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte [] digest = md.digest(key.getBytes("UTF-8"));
+			
+			StringBuilder sb = new StringBuilder(digest.length * 2 + 4);
+			for(byte b : digest)
+				sb.append(String.format("%02x", b & 0xFF));
+			sb.append(".jpg");
+			
+			return new File(cacheDir, sb.toString());
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	private void store(BufferedImage thumb, File cached) {
+		if(!cacheDir.isDirectory() && !cacheDir.mkdirs())
+			return;
+		
+		// JPEG has no alpha
+		BufferedImage rgb = thumb;
+		if(SSMV.hasTransparency(thumb)) {
+			rgb = IntRaster.createIntImage(thumb.getWidth(), thumb.getHeight(), false);
+			rgb.createGraphics().drawImage(thumb, 0, 0, Color.WHITE, null);
+		}
+		
+		// written under another name first so readers never see a partial file
+		File tmp = new File(cacheDir, cached.getName() + ".tmp");
+		try {
+			if(ImageIO.write(rgb, "jpg", tmp) && tmp.renameTo(cached))
+				return;
+		} catch (IOException e) {
+		}
+		tmp.delete();
+	}
+	
+	/**
+	 * Creates the thumbnail without the disk cache
+	 */
+	public BufferedImage create(File f) throws IOException {
+		ByteBuffer data = StereoLoader.map(f);
+		
+		BufferedImage bi = null;
+		
+		if(isJPEG(data))
+			bi = readEmbedded(data);
+		
+		if(bi == null) {
+			Dimension full = StereoLoader.readSize(data);
+			Dimension target = new Dimension(size, size);
+			bi = StereoLoader.readImage(data, null, 0, StereoLoader.getSubsampling(full.width, full.height, target));
+		}
+		
+		return fit(bi);
+	}
+	
+	private static boolean isJPEG(ByteBuffer data) {
+		return data.limit() > 4 && (data.get(0) & 0xFF) == 0xFF && (data.get(1) & 0xFF) == MPOIndex.MARKER_SOI;
+	}
+	
+	/**
+	 * @return the EXIF thumbnail, the MPF large thumbnail or null if there is neither
+	 */
+	public BufferedImage readEmbedded(ByteBuffer data) {
+		try {
+			ByteBuffer exif = findExifThumbnail(data);
+			if(exif != null)
+				return StereoLoader.readImage(exif);
+		} catch (IOException e) {
+			// broken EXIF thumbnail, try the MPF one
+		}
+		
+		try {
+			MPOIndex index = MPOIndex.parse(data);
+			if(index == null)
+				return null;
+			
+			for(MPOIndex.Entry e : index.getEntries()) {
+				if(e.isJPEG() && e.isThumbnail()) {
+					ByteBuffer jpeg = StereoLoader.slice(data, e.getOffset(), e.getSize());
+					Dimension full = StereoLoader.readSize(jpeg);
+					return StereoLoader.readImage(jpeg, null, 0, StereoLoader.getSubsampling(full.width, full.height, new Dimension(size, size)));
+				}
+			}
+		} catch (IOException e) {
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Locates the JPEG thumbnail in IFD1 of the EXIF segment.
+	 * 
+	 * @return the thumbnail data or null if there is none
+	 */
+	static ByteBuffer findExifThumbnail(ByteBuffer data) {
+		int pos = MPOIndex.findSegment(data, MPOIndex.MARKER_APP1, EXIF_IDENTIFIER);
+		if(pos < 0)
+			return null;
+		
+		int end = MPOIndex.segmentEnd(data, pos);
+		int tiff = pos + 4 + EXIF_IDENTIFIER.length;
+		
+		if(tiff + 8 > end)
+			return null;
+		
+		ByteBuffer b = data.duplicate();
+		int bo = ((data.get(tiff) & 0xFF) << 8) | (data.get(tiff+1) & 0xFF);
+		if(bo == 0x4949)
+			b.order(ByteOrder.LITTLE_ENDIAN);
+		else if(bo == 0x4D4D)
+			b.order(ByteOrder.BIG_ENDIAN);
+		else
+			return null;
+		
+		// IFD0, the offset of IFD1 follows its entries
+		int ifd0 = tiff + b.getInt(tiff + 4);
+		if(ifd0 < tiff || ifd0 + 2 > end)
+			return null;
+		
+		int next = ifd0 + 2 + (b.getShort(ifd0) & 0xFFFF) * 12;
+		if(next + 4 > end)
+			return null;
+		
+		int ifd1Offset = b.getInt(next);
+		if(ifd1Offset <= 0)
+			return null;
+		
+		int ifd1 = tiff + ifd1Offset;
+		if(ifd1 + 2 > end)
+			return null;
+		
+		int count = b.getShort(ifd1) & 0xFFFF;
+		int offset = -1;
+		int length = -1;
+		
+		for(int i=0; i<count; i++) {
+			int tpos = ifd1 + 2 + i * 12;
+			if(tpos + 12 > end)
+				return null;
+			
+			int tag = b.getShort(tpos) & 0xFFFF;
+			if(tag == TAG_JPEG_OFFSET)
+				offset = b.getInt(tpos + 8);
+			else if(tag == TAG_JPEG_LENGTH)
+				length = b.getInt(tpos + 8);
+		}
+		
+		if(offset <= 0 || length <= 2 || tiff + offset + length > end)
+			return null;
+		
+		ByteBuffer thumb = StereoLoader.slice(data, tiff + offset, length);
+		if(!isJPEG(thumb))
+			return null;
+		
+		return thumb;
+	}
+	
+	private BufferedImage fit(BufferedImage bi) {
+		int w = bi.getWidth();
+		int h = bi.getHeight();
+		
+		if(w <= size && h <= size)
+			return IntRaster.toIntImage(bi);
+		
+		float scale = Math.min((float)size / w, (float)size / h);
+		return ImageScaler.scale(bi, Math.max(1, Math.round(w * scale)), Math.max(1, Math.round(h * scale)), ImageScaler.Quality.Progressive, null);
+	}
+}
@@ -0,0 +1,329 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.EventQueue;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decoded tiles of {@link TiledImage}s, bounded by the amount of pixel memory.
+ * Missing tiles are decoded in the background, the most recently requested rows first.
+ */
+public class TileCache {
+	
+	// rows that were requested longer ago are most likely no longer visible
+	private static final int MAX_QUEUED = 16;
+	
+	/**
+	 * Is notified on the EDT
+	 */
+	public interface Listener {
+		/**
+		 * New tiles are available
+		 */
+		void tilesLoaded();
+		
+		/**
+		 * Parts of an image could not be decoded, only the first failure of an image is reported
+		 */
+		void tilesFailed(TiledImage image, String message);
+	}
+	
+	private static class Key {
+		private final TiledImage image;
+		private final int subsampling;
+		private final int column;
+		private final int row;
+		
+		public Key(TiledImage image, int subsampling, int column, int row) {
+			this.image = image;
+			this.subsampling = subsampling;
+			this.column = column;
+			this.row = row;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key))
+				return false;
+			Key k = (Key)o;
+			return k.image == image && k.subsampling == subsampling && k.column == column && k.row == row;
+		}
+		
+		@Override
+		public int hashCode() {
+			return ((System.identityHashCode(image) * 31 + subsampling) * 31 + column) * 31 + row;
+		}
+	}
+	
+	private final long maxBytes;
+	private long bytes = 0;
+	
+	// guarded by this
+	private final LinkedHashMap<Key, BufferedImage> tiles = new LinkedHashMap<Key, BufferedImage>(64, 0.75f, true);
+	private final LinkedList<Key> queue = new LinkedList<Key>();
+	private final Set<Key> pending = new HashSet<Key>();
+	// rows that could not be decoded are not tried again
+	private final Set<Key> failed = new HashSet<Key>();
+	private final Set<TiledImage> reported = new HashSet<TiledImage>();
+	// images that are displayed, null for all
+	private Set<TiledImage> retained = null;
+	
+	private final AtomicInteger version = new AtomicInteger();
+	
+	private final Listener listener;
+	
+	private final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SSMV-Tiles");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	public TileCache(long maxBytes, Listener listener) {
+		this.maxBytes = maxBytes;
+		this.listener = listener;
+	}
+	
+	/**
+	 * Drops the tiles and failures of all other images, so their files can be unmapped.
+	 * Tiles of other images are no longer decoded.
+	 * 
+	 * @param images the displayed images, null entries are ignored
+	 */
+	public synchronized void retain(TiledImage... images) {
+		retained = new HashSet<TiledImage>();
+		for(TiledImage image : images) {
+			if(image != null)
+				retained.add(image);
+		}
+		
+		Iterator<Map.Entry<Key, BufferedImage>> t = tiles.entrySet().iterator();
+		while(t.hasNext()) {
+			Map.Entry<Key, BufferedImage> e = t.next();
+			if(!retained.contains(e.getKey().image)) {
+				bytes -= bytesOf(e.getValue());
+				t.remove();
+			}
+		}
+		
+		Iterator<Key> q = queue.iterator();
+		while(q.hasNext()) {
+			Key k = q.next();
+			if(!retained.contains(k.image)) {
+				pending.remove(k);
+				q.remove();
+			}
+		}
+		
+		Iterator<Key> f = failed.iterator();
+		while(f.hasNext()) {
+			if(!retained.contains(f.next().image))
+				f.remove();
+		}
+		
+		reported.retainAll(retained);
+	}
+	
+	private boolean isRetained(TiledImage image) {
+		return retained == null || retained.contains(image);
+	}
+	
+	/**
+	 * @return a number that changes whenever tiles were added
+	 */
+	public int getVersion() {
+		return version.get();
+	}
+	
+	public synchronized BufferedImage get(TiledImage image, int subsampling, int column, int row) {
+		return tiles.get(new Key(image, subsampling, column, row));
+	}
+	
+	private synchronized void put(TiledImage image, int subsampling, int row, BufferedImage [] rowTiles) {
+		// the image was replaced while the row was decoded
+		if(!isRetained(image))
+			return;
+		
+		for(int i=0; i<rowTiles.length; i++) {
+			BufferedImage old = tiles.put(new Key(image, subsampling, i, row), rowTiles[i]);
+			if(old != null)
+				bytes -= bytesOf(old);
+			bytes += bytesOf(rowTiles[i]);
+		}
+		
+		Iterator<BufferedImage> i = tiles.values().iterator();
+		while(bytes > maxBytes && i.hasNext()) {
+			bytes -= bytesOf(i.next());
+			i.remove();
+		}
+	}
+	
+	private static long bytesOf(BufferedImage bi) {
+		return 4L * bi.getWidth() * bi.getHeight();
+	}
+	
+	/**
+	 * Queues the decoding of a row of tiles
+	 */
+	public synchronized void request(TiledImage image, int subsampling, int row) {
+		Key k = new Key(image, subsampling, -1, row);
+		if(failed.contains(k) || !isRetained(image))
+			return;
+		
+		if(!pending.add(k)) {
+			// move it to the front
+			if(queue.remove(k))
+				queue.addLast(k);
+			return;
+		}
+		
+		queue.addLast(k);
+		if(queue.size() > MAX_QUEUED)
+			pending.remove(queue.removeFirst());
+		
+		loader.execute(new Runnable() {
+			public void run() {
+				loadNext();
+			}
+		});
+	}
+	
+	private void loadNext() {
+		Key k;
+		synchronized (this) {
+			k = queue.pollLast();
+			if(k == null)
+				return;
+		}
+		
+		String error = null;
+		try {
+			put(k.image, k.subsampling, k.row, k.image.decodeRow(k.subsampling, k.row));
+		} catch (IOException e) {
+			error = e.getMessage();
+		} catch (OutOfMemoryError e) {
+			error = "There is not enough memory to decode this image...";
+		} finally {
+			synchronized (this) {
+				pending.remove(k);
+			}
+		}
+		
+		if(error != null) {
+			synchronized (this) {
+				if(!isRetained(k.image))
+					return;
+				failed.add(k);
+				if(!reported.add(k.image))
+					return;
+			}
+			
+			final TiledImage image = k.image;
+			final String message = error;
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					listener.tilesFailed(image, message);
+				}
+			});
+			return;
+		}
+		
+		version.incrementAndGet();
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				listener.tilesLoaded();
+			}
+		});
+	}
+	
+	/**
+	 * Draws the tiles covering a region of the image. Tiles that are not yet decoded
+	 * are requested and left out, so whatever was drawn below stays visible.
+	 * 
+	 * @param x0 left edge of the region in full resolution pixels
+	 * @param y0 top edge of the region in full resolution pixels
+	 * @param w width of the region in full resolution pixels
+	 * @param h height of the region in full resolution pixels
+	 * @param dx destination of the region in g
+	 */
+	public void drawRegion(Graphics2D g, TiledImage image, double x0, double y0, double w, double h, int dx, int dy, int dw, int dh) {
+		double scale = dw / w;
+		
+		// the coarsest level that still has at least one pixel per display pixel
+		int subsampling = 1;
+		while(subsampling * 2 <= 1.0 / scale)
+			subsampling *= 2;
+		
+		int span = TiledImage.TILE_SIZE * subsampling;
+		int c0 = Math.max(0, (int)Math.floor(x0 / span));
+		int c1 = Math.min(image.getColumns(subsampling) - 1, (int)Math.floor((x0 + w - 1e-6) / span));
+		int r0 = Math.max(0, (int)Math.floor(y0 / span));
+		int r1 = Math.min(image.getRows(subsampling) - 1, (int)Math.floor((y0 + h - 1e-6) / span));
+		
+		Graphics2D gt = (Graphics2D)g.create();
+		try {
+			gt.clipRect(dx, dy, dw, dh);
+			gt.setRenderingHint(RenderingHints.KEY_INTERPOLATION, scale * subsampling >= 1.0 ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			
+			for(int r=r0; r<=r1; r++) {
+				boolean requested = false;
+				for(int c=c0; c<=c1; c++) {
+					BufferedImage tile = get(image, subsampling, c, r);
+					if(tile == null) {
+						if(!requested)
+							request(image, subsampling, r);
+						requested = true;
+						continue;
+					}
+					
+					double sx = c * span;
+					double sy = r * span;
+					int tx1 = dx + (int)Math.floor((sx - x0) * scale);
+					int ty1 = dy + (int)Math.floor((sy - y0) * scale);
+					int tx2 = dx + (int)Math.floor((sx + tile.getWidth() * subsampling - x0) * scale);
+					int ty2 = dy + (int)Math.floor((sy + tile.getHeight() * subsampling - y0) * scale);
+					
+					gt.drawImage(tile, tx1, ty1, tx2, ty2, 0, 0, tile.getWidth(), tile.getHeight(), null);
+				}
+			}
+		} finally {
+			gt.dispose();
+		}
+	}
+}
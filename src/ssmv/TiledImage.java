@@ -0,0 +1,153 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * One eye of an image that is too large to be kept in memory at full resolution.
+ * The pixels are decoded on demand in tiles of {@link #TILE_SIZE} pixels, for a
+ * subsampling level (1 is full resolution) only one band of tiles is decoded at a time.
+ */
+public class TiledImage {
+	
+	public static final int TILE_SIZE = 512;
+	
+	private final ByteBuffer data;
+	private final Rectangle region;
+	
+	/**
+	 * @param data the encoded image
+	 * @param region the part of the image that belongs to this eye
+	 */
+	public TiledImage(ByteBuffer data, Rectangle region) {
+		this.data = data;
+		this.region = new Rectangle(region);
+	}
+	
+	public int getWidth() {
+		return region.width;
+	}
+	
+	public int getHeight() {
+		return region.height;
+	}
+	
+	private static int ceilDiv(int a, int b) {
+		return (a + b - 1) / b;
+	}
+	
+	public int getColumns(int subsampling) {
+		return ceilDiv(ceilDiv(region.width, subsampling), TILE_SIZE);
+	}
+	
+	public int getRows(int subsampling) {
+		return ceilDiv(ceilDiv(region.height, subsampling), TILE_SIZE);
+	}
+	
+	/**
+	 * Decodes the rows y to y+h-1 at full resolution, for saving the image band by band
+	 */
+	public BufferedImage decodeRows(int y, int h) throws IOException {
+		if(y < 0 || h <= 0 || y + h > region.height)
+			throw new IllegalArgumentException("Invalid rows: " + y + " + " + h);
+		
+		BufferedImage bi;
+		ImageInputStream iis = new ByteBufferImageInputStream(data.duplicate());
+		try {
+			ImageReader reader = StereoLoader.getReader(iis);
+			try {
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(new Rectangle(region.x, region.y + y, region.width, h));
+				StereoLoader.decodeToInt(reader, param);
+				bi = reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			iis.close();
+		}
+		
+		return IntRaster.toIntImage(bi);
+	}
+	
+	/**
+	 * Decodes one row of tiles.
+	 * 
+	 * @return the tiles of the row from left to right
+	 */
+	public BufferedImage [] decodeRow(int subsampling, int row) throws IOException {
+		int bandHeight = TILE_SIZE * subsampling;
+		int y = row * bandHeight;
+		if(row < 0 || y >= region.height)
+			throw new IllegalArgumentException("Invalid tile row: " + row);
+		
+		Rectangle source = new Rectangle(region.x, region.y + y, region.width, Math.min(bandHeight, region.height - y));
+		
+		BufferedImage band;
+		ImageInputStream iis = new ByteBufferImageInputStream(data.duplicate());
+		try {
+			ImageReader reader = StereoLoader.getReader(iis);
+			try {
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(source);
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				StereoLoader.decodeToInt(reader, param);
+				band = reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			iis.close();
+		}
+		
+		// copies, so a cached tile does not keep the whole band alive
+		boolean alpha = SSMV.hasTransparency(band);
+		int bw = band.getWidth();
+		int bh = band.getHeight();
+		BufferedImage [] tiles = new BufferedImage [ceilDiv(bw, TILE_SIZE)];
+		
+		for(int i=0; i<tiles.length; i++) {
+			int tx = i * TILE_SIZE;
+			int tw = Math.min(TILE_SIZE, bw - tx);
+			
+			tiles[i] = IntRaster.createIntImage(tw, bh, alpha);
+			Graphics2D g = tiles[i].createGraphics();
+			g.setComposite(AlphaComposite.Src);
+			g.drawImage(band, -tx, 0, null);
+			g.dispose();
+		}
+		
+		return tiles;
+	}
+}
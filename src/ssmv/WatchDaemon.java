@@ -0,0 +1,573 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches a directory and converts new stereo files as they arrive.
+ * <p>
+ * Files are only queued after their size and modification time did not change
+ * for the debounce time. The work queue is bounded, when it is full new files
+ * wait in a bounded pending list and beyond that are found again by rescanning
+ * the directory later. Memory use therefore does not depend on the number of
+ * arriving files. Converted files are recorded in a ledger so they are not
+ * converted again after a restart.
+ */
+public class WatchDaemon extends BatchConverter {
+	
+	private static final String usage =
+			"Usage: java -jar SSMV.jar --watch [options] <directory>\n" +
+			"\n" +
+			"Options:\n" +
+			"  -o <dir>       output directory (default: the watched directory)\n" +
+			"  -f <format>    output format, e.g. jpg, png (default: jpg)\n" +
+			"  -m <outputs>   comma separated list of anaglyph, cross, parallel, left, right,\n" +
+			"                 rows, columns, checkerboard (default: anaglyph)\n" +
+			"  -a <mask>      anaglyph mask: red, green or blue (default: red)\n" +
+			"  -M <method>    anaglyph method: mask, gray, halfcolor, optimized, dubois\n" +
+			"                 (default: mask)\n" +
+			"  -t <threads>   number of files converted at the same time\n" +
+			"  -L <layout>    layout of side-by-side files: sidebysiderl, sidebysidelr,\n" +
+			"                 halfsidebysiderl, halfsidebysidelr, overunderlr, overunderrl,\n" +
+			"                 halfoverunderlr, halfoverunderrl (default: sidebysiderl)\n" +
+			"  -s             swap left and right image\n" +
+			"  -A             correct vertical offset and rotation of MPO files\n" +
+			"  -l <file>      ledger of converted files (default: .ssmv-ledger in the output directory)\n" +
+			"  -d <ms>        time a file must stay unchanged before it is converted (default: 2000)\n" +
+			"  -q <files>     maximum number of queued files (default: 2 * threads)\n";
+	
+	private static final String LEDGER_OK = "OK";
+	private static final String LEDGER_FAILED = "FAILED";
+	
+	// the ledger file is not rewritten for fewer stale lines
+	private static final int MIN_STALE_LINES = 1024;
+	
+	// files waiting for the debounce time, beyond that the directory is rescanned later
+	private static final int MAX_PENDING = 4096;
+	
+	private File ledgerFile = null;
+	private long debounce = 2000;
+	private int queueSize = 0;
+	
+	private File directory;
+	
+	private static class Candidate {
+		private long length;
+		private long lastModified;
+		private long changed;
+		
+		public Candidate(File f, long now) {
+			length = f.length();
+			lastModified = f.lastModified();
+			changed = now;
+		}
+		
+		/**
+		 * @return true if the file changed since the last check
+		 */
+		public boolean update(File f, long now) {
+			long l = f.length();
+			long m = f.lastModified();
+			if(l == length && m == lastModified)
+				return false;
+			length = l;
+			lastModified = m;
+			changed = now;
+			return true;
+		}
+	}
+	
+	// guarded by this
+	private final Map<File, Candidate> pending = new LinkedHashMap<File, Candidate>();
+	private final Set<File> inFlight = new HashSet<File>();
+	// status of the converted files that are still in the directory
+	private final Map<File, Recorded> ledger = new HashMap<File, Recorded>();
+	private Writer ledgerWriter = null;
+	// lines in the ledger file that are no longer in the map
+	private int staleLines = 0;
+	
+	private volatile boolean rescan = true;
+	private volatile boolean running = true;
+	
+	private BlockingQueue<File> queue;
+	
+	public WatchDaemon(PrintStream out, PrintStream err) {
+		super(out, err);
+	}
+	
+	public static int run(String... args) {
+		WatchDaemon wd = new WatchDaemon(System.out, System.err);
+		
+		try {
+			wd.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println();
+			System.err.print(wd.getUsage());
+			return 2;
+		}
+		
+		try {
+			return wd.watch();
+		} catch (IOException e) {
+			System.err.println(describe(e));
+			return 1;
+		}
+	}
+	
+	@Override
+	protected String getUsage() {
+		return usage;
+	}
+	
+	@Override
+	protected int parseOption(String [] args, int i) {
+		String a = args[i];
+		
+		try {
+			if(a.equals("-l")) {
+				ledgerFile = new File(next(args, ++i, a));
+			} else if(a.equals("-d")) {
+				debounce = Long.parseLong(next(args, ++i, a));
+				if(debounce < 0)
+					throw new IllegalArgumentException("Invalid debounce time: " + args[i]);
+			} else if(a.equals("-q")) {
+				queueSize = Integer.parseInt(next(args, ++i, a));
+				if(queueSize < 1)
+					throw new IllegalArgumentException("Invalid queue size: " + args[i]);
+			} else if(a.equals("-r")) {
+				return -1;
+			} else {
+				return super.parseOption(args, i);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for " + a + ": " + args[i]);
+		}
+		
+		return i;
+	}
+	
+	private static class Recorded {
+		final long length;
+		final long lastModified;
+		final String line;
+		
+		Recorded(long length, long lastModified, String line) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.line = line;
+		}
+	}
+	
+	/**
+	 * Reads the ledger and rewrites it without the entries of files that were removed or changed.
+	 */
+	private void openLedger() throws IOException {
+		Charset utf8 = Charset.forName("UTF-8");
+		
+		ledger.clear();
+		staleLines = 0;
+		
+		if(ledgerFile.isFile()) {
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(ledgerFile), utf8));
+			try {
+				String line;
+				while((line = br.readLine()) != null) {
+					String [] parts = line.split("\t", 4);
+					if(parts.length != 4)
+						continue;
+					
+					try {
+						File f = new File(parts[3]).getAbsoluteFile();
+						long length = Long.parseLong(parts[1]);
+						long lastModified = Long.parseLong(parts[2]);
+						
+						if(f.length() == length && f.lastModified() == lastModified)
+							ledger.put(f, new Recorded(length, lastModified, line));
+					} catch (NumberFormatException e) {
+						// a line that was cut off when the process died
+					}
+				}
+			} finally {
+				br.close();
+			}
+		}
+		
+		File dir = ledgerFile.getAbsoluteFile().getParentFile();
+		if(dir != null && !dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Can not create directory for the ledger " + dir);
+		
+		// compacted copy replaces the ledger in one step
+		File tmp = new File(ledgerFile.getPath() + ".tmp");
+		Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), utf8));
+		try {
+			for(Recorded r : ledger.values()) {
+				w.write(r.line);
+				w.write('\n');
+			}
+		} finally {
+			w.close();
+		}
+		
+		if(!tmp.renameTo(ledgerFile)) {
+			ledgerFile.delete();
+			if(!tmp.renameTo(ledgerFile))
+				throw new IOException("Can not write ledger " + ledgerFile);
+		}
+		
+		ledgerWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(ledgerFile, true), utf8));
+	}
+	
+	private synchronized void record(File f, long length, long lastModified, boolean ok) {
+		f = f.getAbsoluteFile();
+		String line = (ok ? LEDGER_OK : LEDGER_FAILED) + '\t' + length + '\t' + lastModified + '\t' + f.getPath();
+		
+		// a changed file replaces its old line
+		if(ledger.put(f, new Recorded(length, lastModified, line)) != null)
+			staleLines++;
+		
+		try {
+			ledgerWriter.write(line);
+			ledgerWriter.write('\n');
+			ledgerWriter.flush();
+		} catch (IOException e) {
+			err.println("Can not write to ledger: " + describe(e));
+		}
+		
+		compactLedger();
+	}
+	
+	/**
+	 * Drops the entry of a file that left the directory, so the ledger only grows with the directory
+	 */
+	private synchronized void forget(File f) {
+		if(ledger.remove(f.getAbsoluteFile()) != null) {
+			staleLines++;
+			compactLedger();
+		}
+	}
+	
+	/**
+	 * Rewrites the ledger file once it has more stale lines than entries
+	 */
+	private synchronized void compactLedger() {
+		if(staleLines < Math.max(MIN_STALE_LINES, ledger.size()))
+			return;
+		
+		try {
+			ledgerWriter.close();
+			openLedger();
+		} catch (IOException e) {
+			err.println("Can not compact ledger: " + describe(e));
+			// keep appending to the old ledger
+			staleLines = 0;
+			try {
+				ledgerWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(ledgerFile, true), Charset.forName("UTF-8")));
+			} catch (IOException e2) {
+				err.println("Can not write to ledger: " + describe(e2));
+			}
+		}
+	}
+	
+	private synchronized boolean isDone(File f) {
+		Recorded r = ledger.get(f.getAbsoluteFile());
+		return r != null && r.length == f.length() && r.lastModified == f.lastModified();
+	}
+	
+	/**
+	 * Remembers a new or changed file, returns false if there is no room for it
+	 */
+	private synchronized boolean notice(File f, long now) {
+		if(inFlight.contains(f))
+			return true;
+		
+		Candidate c = pending.get(f);
+		if(c != null) {
+			c.update(f, now);
+			return true;
+		}
+		
+		if(pending.size() >= MAX_PENDING)
+			return false;
+		
+		pending.put(f, new Candidate(f, now));
+		return true;
+	}
+	
+	private void scan() {
+		rescan = false;
+		
+		File [] files = directory.listFiles();
+		if(files == null)
+			return;
+		
+		Arrays.sort(files);
+		long now = System.currentTimeMillis();
+		
+		// deletions may have been missed as well
+		Set<File> present = new HashSet<File>();
+		for(File f : files)
+			present.add(f.getAbsoluteFile());
+		synchronized (this) {
+			List<File> gone = new ArrayList<File>();
+			for(File f : ledger.keySet()) {
+				if(!present.contains(f))
+					gone.add(f);
+			}
+			for(File f : gone)
+				forget(f);
+		}
+		
+		for(File f : files) {
+			if(f.isFile() && isStereoFile(f) && !isDone(f)) {
+				if(!notice(f, now)) {
+					rescan = true;
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Moves files that did not change for the debounce time into the work queue.
+	 */
+	private void tick() {
+		if(rescan)
+			scan();
+		
+		long now = System.currentTimeMillis();
+		
+		synchronized (this) {
+			Iterator<Map.Entry<File, Candidate>> i = pending.entrySet().iterator();
+			while(i.hasNext()) {
+				Map.Entry<File, Candidate> e = i.next();
+				File f = e.getKey();
+				
+				if(!f.isFile()) {
+					i.remove();
+					continue;
+				}
+				
+				if(e.getValue().update(f, now) || now - e.getValue().changed < debounce)
+					continue;
+				
+				if(isDone(f)) {
+					i.remove();
+					continue;
+				}
+				
+				// a full queue leaves the file pending
+				if(!queue.offer(f))
+					break;
+				
+				i.remove();
+				inFlight.add(f);
+			}
+		}
+	}
+	
+	private void work() {
+		while(running) {
+			File f;
+			try {
+				f = queue.poll(500, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if(f == null)
+				continue;
+			
+			try {
+				long length = f.length();
+				long lastModified = f.lastModified();
+				
+				Result r = convert(f);
+				
+				if(r.error != null) {
+					err.println("FAILED " + f + ": " + describe(r.error));
+				} else {
+					out.println("Converted " + f);
+				}
+				
+				// failed files are only tried again when they change
+				record(f, length, lastModified, r.error == null);
+			} finally {
+				synchronized (this) {
+					inFlight.remove(f);
+					
+					// changed while it was converted
+					if(f.isFile() && !isDone(f))
+						notice(f, System.currentTimeMillis());
+				}
+			}
+		}
+	}
+	
+	public int watch() throws IOException {
+		if(inputs.size() != 1 || !inputs.get(0).isDirectory())
+			throw new IOException("The watch mode needs exactly one directory");
+		
+		directory = inputs.get(0).getAbsoluteFile();
+		
+		if(outputDir != null && !outputDir.isDirectory() && !outputDir.mkdirs())
+			throw new IOException("Can not create output directory " + outputDir);
+		
+		if(ledgerFile == null)
+			ledgerFile = new File(outputDir != null ? outputDir : directory, ".ssmv-ledger");
+		
+		openLedger();
+		
+		queue = new ArrayBlockingQueue<File>(queueSize > 0 ? queueSize : 2 * threads);
+		
+		final WatchService ws = directory.toPath().getFileSystem().newWatchService();
+		directory.toPath().register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		
+		final ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "SSMV-Watch-" + count.incrementAndGet());
+			}
+		});
+		
+		for(int i=0; i<threads; i++) {
+			workers.execute(new Runnable() {
+				public void run() {
+					work();
+				}
+			});
+		}
+		
+		ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SSMV-Watch-Debounce");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ticker.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					tick();
+				} catch (RuntimeException e) {
+					err.println("Error while checking files: " + describe(e));
+				}
+			}
+		}, 0, Math.max(100, debounce / 4), TimeUnit.MILLISECONDS);
+		
+		// finish the running conversions on Ctrl+C
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				running = false;
+				try {
+					ws.close();
+				} catch (IOException e) {
+				}
+				workers.shutdown();
+				try {
+					workers.awaitTermination(60, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+				synchronized (WatchDaemon.this) {
+					try {
+						ledgerWriter.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		});
+		
+		out.println("Watching " + directory + " (Ctrl+C to stop)");
+		
+		try {
+			while(running) {
+				WatchKey key = ws.take();
+				long now = System.currentTimeMillis();
+				
+				for(WatchEvent<?> event : key.pollEvents()) {
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						rescan = true;
+						continue;
+					}
+					
+					File f = directory.toPath().resolve((Path)event.context()).toFile();
+					if(event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+						forget(f);
+						continue;
+					}
+					if(isStereoFile(f) && !notice(f, now))
+						rescan = true;
+				}
+				
+				if(!key.reset()) {
+					err.println("Directory " + directory + " is no longer accessible");
+					running = false;
+					return 1;
+				}
+			}
+		} catch (InterruptedException e) {
+		} catch (ClosedWatchServiceException e) {
+			// shutting down
+		} finally {
+			ticker.shutdownNow();
+		}
+		
+		return 0;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+SSMV (Super Simple MPO Viewer) - Copyright (c) 2012 Hendrik Iben - hendrik [dot] iben <at> googlemail [dot] com
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal in
+the Software without restriction, including without limitation the rights to
+use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+of the Software, and to permit persons to whom the Software is furnished to do
+so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package ssmv;
+
+import java.awt.EventQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Alternates between two frames at a fixed rate. The frame to show is derived
+ * from the time since the start, so late ticks do not accumulate drift.
+ * All animators share one scheduler thread.
+ */
+public class WiggleAnimator {
+	
+	public interface Listener {
+		/**
+		 * Called on the EDT whenever the frame changes
+		 * 
+		 * @param second true if the second frame is to be shown
+		 */
+		public void showFrame(boolean second);
+	}
+	
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SSMV-Animation");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	private final Listener listener;
+	
+	// only accessed on the EDT
+	private ScheduledFuture<?> ticks = null;
+	private long start;
+	private long delayNanos;
+	private boolean second = false;
+	
+	// a tick that is still waiting for the EDT makes further ticks redundant
+	private final AtomicBoolean framePending = new AtomicBoolean();
+	
+	private final Runnable showFrame = new Runnable() {
+		public void run() {
+			framePending.set(false);
+			if(ticks == null)
+				return;
+			
+			boolean s = ((System.nanoTime() - start) / delayNanos) % 2 == 1;
+			if(s != second) {
+				second = s;
+				listener.showFrame(second);
+			}
+		}
+	};
+	
+	public WiggleAnimator(Listener listener) {
+		this.listener = listener;
+	}
+	
+	public boolean isRunning() {
+		return ticks != null;
+	}
+	
+	/**
+	 * (Re-)Starts the animation with the first frame, only on the EDT
+	 */
+	public void start(int delay) {
+		stop();
+		
+		delayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, delay));
+		start = System.nanoTime();
+		second = false;
+		
+		ticks = scheduler.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				if(framePending.compareAndSet(false, true))
+					EventQueue.invokeLater(showFrame);
+			}
+		}, delayNanos, delayNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Stops the animation immediately, only on the EDT
+	 */
+	public void stop() {
+		if(ticks != null) {
+			ticks.cancel(false);
+			ticks = null;
+		}
+	}
+}